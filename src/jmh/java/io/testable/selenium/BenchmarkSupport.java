@@ -0,0 +1,31 @@
+package io.testable.selenium;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Setup shared by the benchmarks. Must be called before {@link TestableSelenium} is first used in the forked JVM
+ * since its configuration is read from system properties when the class is initialized.
+ */
+class BenchmarkSupport {
+
+    /**
+     * Send results to the null device so benchmarks measure serialization and writing without filling the disk or
+     * the console.
+     */
+    static void discardResults() {
+        boolean windows = System.getProperty("os.name", "").startsWith("Windows");
+        System.setProperty("TESTABLE_RESULT_FILE", windows ? "NUL" : "/dev/null");
+    }
+
+    /**
+     * Write screenshots to a temporary output directory. Each benchmark overwrites the same file.
+     */
+    static void screenshotsToTempDir() throws IOException {
+        Path dir = Files.createTempDirectory("testable-jmh");
+        dir.toFile().deleteOnExit();
+        System.setProperty("OUTPUT_DIR", dir.toString());
+    }
+
+}
@@ -0,0 +1,56 @@
+package io.testable.selenium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Library overhead around browser interactions, using {@link StubWebDriver} so no browser is needed: screenshots
+ * (time spent on the calling thread only for the async variant) and reporting browser performance metrics.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BrowserBenchmark {
+
+    private StubWebDriver driver;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.discardResults();
+        BenchmarkSupport.screenshotsToTempDir();
+        driver = new StubWebDriver(1280, 1024);
+    }
+
+    @Benchmark
+    public Path takeScreenshot() {
+        return TestableSelenium.takeScreenshot(driver, "benchmark.png");
+    }
+
+    @Benchmark
+    public Future<Path> takeScreenshotAsync() {
+        return TestableSelenium.takeScreenshotAsync(driver, "benchmark.png");
+    }
+
+    @Benchmark
+    public Map<String, Object> collectPerformanceMetrics() {
+        return TestableSelenium.collectPerformanceMetrics(driver);
+    }
+
+}
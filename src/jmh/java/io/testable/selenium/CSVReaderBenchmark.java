@@ -0,0 +1,121 @@
+package io.testable.selenium;
+
+import org.apache.commons.csv.CSVRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row access cost of {@link TestableCSVReader} for in-memory and memory-mapped (indexed) readers over generated
+ * files of different sizes, field access by name vs by {@link TestableCSVColumn}, and the cost of opening a reader
+ * over a file that is already cached.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class CSVReaderBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    @Param({ "false", "true" })
+    public boolean indexed;
+
+    private Path file;
+    private TestableCSVReader reader;
+    private TestableCSVColumn username;
+    private TestableCSVSampler uniform;
+    private TestableCSVSampler shuffled;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchmarkSupport.discardResults();
+        file = Files.createTempFile("testable-jmh", ".csv");
+        file.toFile().deleteOnExit();
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            writer.write("id,username,password,email\n");
+            for (int i = 0; i < rows; i++)
+                writer.write(i + ",user" + i + ",\"p@ss,word" + i + "\",user" + i + "@example.com\n");
+        }
+        reader = new TestableCSVReader(file.toString(), indexed);
+        username = reader.column("username");
+        uniform = reader.uniform();
+        shuffled = reader.shuffled();
+    }
+
+    @Benchmark
+    public TestableCSVReader open() throws IOException {
+        return new TestableCSVReader(file.toString(), indexed);
+    }
+
+    @Benchmark
+    public String fieldByName() {
+        return reader.get(ThreadLocalRandom.current().nextInt(rows)).get("username");
+    }
+
+    @Benchmark
+    public String fieldByColumn() {
+        return username.get(ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public CSVRecord get() {
+        return reader.get(ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    @Benchmark
+    public CSVRecord next() throws IOException {
+        return reader.next();
+    }
+
+    @Benchmark
+    public CSVRecord random() {
+        return reader.random();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CSVRecord nextContended() throws IOException {
+        return reader.next();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public CSVRecord randomContended() {
+        return reader.random();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int uniformContended() {
+        return uniform.nextIndex();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int shuffledContended() {
+        return shuffled.nextIndex();
+    }
+
+}
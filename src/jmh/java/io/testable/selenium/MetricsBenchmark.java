@@ -0,0 +1,72 @@
+package io.testable.selenium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording a timing through a pre-registered {@link TestableMetrics} handle compared to building and
+ * reporting a {@link TestableMetric} with aggregation enabled. Run with the GC profiler to compare allocation per
+ * operation.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dtestable_aggregate_metrics=true")
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private TestableMetrics.Timer timer;
+    private TestableMetrics.Counter counter;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.discardResults();
+        timer = TestableMetrics.timer("Page Load Time", "ms");
+        counter = TestableMetrics.counter("Requests", "requests");
+    }
+
+    @Benchmark
+    public void reportMetric() {
+        TestableSelenium.reportMetric(TestableMetric.newTimingBuilder()
+                .withName("Page Load Time")
+                .withResource("checkout")
+                .withUnits("ms")
+                .withVal(1234)
+                .build());
+    }
+
+    @Benchmark
+    public void timer() {
+        timer.record("checkout", 1234);
+    }
+
+    @Benchmark
+    public void counter() {
+        counter.inc("checkout");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void timerContended() {
+        timer.record("checkout", 1234);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void counterContended() {
+        counter.inc("checkout");
+    }
+
+}
@@ -0,0 +1,86 @@
+package io.testable.selenium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of writing results: raw writeToStream, custom metrics, and logging messages and exceptions. The message
+ * size parameter controls the length of log messages and exception messages. The *Contended variants run with 4
+ * threads to show the cost of sharing the result stream between virtual users.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResultStreamBenchmark {
+
+    @Param({ "16", "256", "4096" })
+    public int messageSize;
+
+    private String message;
+    private RuntimeException exception;
+    private TestableStartSuiteTest step;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.discardResults();
+        char[] chars = new char[messageSize];
+        Arrays.fill(chars, 'x');
+        message = new String(chars);
+        exception = new RuntimeException(message);
+        step = new TestableStartSuiteTest(new TestableStartSuite("Benchmark Suite", System.currentTimeMillis()),
+                message, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public void writeToStream() {
+        TestableSelenium.writeToStream(new TestableSelenium.Result("StartSuiteTest", step));
+    }
+
+    @Benchmark
+    public void reportMetric() {
+        TestableSelenium.reportMetric(TestableMetric.newTimingBuilder()
+                .withName("Page Load Time")
+                .withUnits("ms")
+                .withVal(1234)
+                .build());
+    }
+
+    @Benchmark
+    public void logMessage() {
+        TestableSelenium.log(TestableLog.Level.Info, message);
+    }
+
+    @Benchmark
+    public void logThrowable() {
+        TestableSelenium.log(TestableLog.Level.Error, exception);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void reportMetricContended() {
+        reportMetric();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logMessageContended() {
+        logMessage();
+    }
+
+}
@@ -0,0 +1,128 @@
+package io.testable.selenium;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A WebDriver that never talks to a browser so benchmarks can run offline. Screenshots return a fixed generated PNG
+ * and scripts return a fixed set of performance values shaped like the output of rum-speedindex.js.
+ */
+class StubWebDriver implements WebDriver, TakesScreenshot, JavascriptExecutor {
+
+    private final byte[] png;
+    private final Map<String, Object> scriptResult = new HashMap<>();
+
+    StubWebDriver(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int x = 0; x < width; x++)
+            for (int y = 0; y < height; y++)
+                image.setRGB(x, y, (x * 31 + y * 17) & 0xFFFFFF);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bos);
+        this.png = bos.toByteArray();
+        scriptResult.put("url", "https://www.example.com/");
+        scriptResult.put("speedIndex", 1234L);
+        scriptResult.put("firstPaint", 456.7);
+        scriptResult.put("firstContentfulPaint", 512.3);
+        scriptResult.put("firstByte", 120.5);
+        scriptResult.put("firstInteractive", 890.1);
+        scriptResult.put("pageLoadMs", 1500.9);
+        scriptResult.put("pageWeight", 2048000L);
+        scriptResult.put("pageRequests", 85L);
+        scriptResult.put("usedJSHeapSize", 10000000L);
+        scriptResult.put("totalJSHeapSize", 20000000L);
+        scriptResult.put("jsHeapSizeLimit", 2000000000L);
+    }
+
+    @Override
+    public <X> X getScreenshotAs(OutputType<X> target) {
+        return target.convertFromPngBytes(png);
+    }
+
+    @Override
+    public Object executeScript(String script, Object... args) {
+        return scriptResult;
+    }
+
+    @Override
+    public Object executeAsyncScript(String script, Object... args) {
+        return scriptResult;
+    }
+
+    @Override
+    public void get(String url) {
+    }
+
+    @Override
+    public String getCurrentUrl() {
+        return "https://www.example.com/";
+    }
+
+    @Override
+    public String getTitle() {
+        return "Example";
+    }
+
+    @Override
+    public List<WebElement> findElements(By by) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public WebElement findElement(By by) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getPageSource() {
+        return "<html></html>";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void quit() {
+    }
+
+    @Override
+    public Set<String> getWindowHandles() {
+        return Collections.singleton("main");
+    }
+
+    @Override
+    public String getWindowHandle() {
+        return "main";
+    }
+
+    @Override
+    public TargetLocator switchTo() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Navigation navigate() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Options manage() {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,64 @@
+package io.testable.selenium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of recording test steps, i.e. the time a step's measured duration is inflated by the library itself.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TestableTestBenchmark {
+
+    private static final Runnable NOOP = () -> { };
+
+    private TestableTest test;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.discardResults();
+        test = TestableSelenium.startTest("Benchmark");
+    }
+
+    @Benchmark
+    public void startAndFinishStep() {
+        test.startStep("Step");
+        test.finishSuccessfulStep();
+    }
+
+    @Benchmark
+    public void runStep() {
+        test.runStep("Step", NOOP);
+    }
+
+    @Benchmark
+    public void nestedSteps() {
+        TestableStep outer = test.step("Outer");
+        TestableStep inner = outer.step("Inner");
+        NOOP.run();
+        inner.close();
+        outer.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void runStepContended() {
+        test.runStep("Step", NOOP);
+    }
+
+}
@@ -0,0 +1,144 @@
+package io.testable.selenium;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes results to the Testable result file from a single background thread. Results are placed on a bounded
+ * queue by the test thread and drained in batches, with one flush per batch. A batch is written once it reaches the
+ * configured batch size or once the flush interval has elapsed since its first result, whichever comes first.
+ */
+class TestableAsyncWriter {
+
+    /**
+     * What to do when the queue is full: block the caller until there is room, or drop the result and count it.
+     */
+    enum Overflow { Block, Drop }
+
+    private final BlockingQueue<TestableSelenium.Result> queue;
+    private final TestableResultFile out;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Overflow overflow;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    // submit holds the read lock while checking running and enqueuing, close takes the write lock to stop accepting
+    // results, so nothing can be enqueued after the final drain
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    TestableAsyncWriter(TestableResultFile out, int queueSize, int batchSize, long flushIntervalMs, Overflow overflow) {
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.out = out;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMs));
+        this.overflow = overflow;
+        this.thread = new Thread(this::drain, "testable-result-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void submit(TestableSelenium.Result result) {
+        closeLock.readLock().lock();
+        try {
+            if (!running) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (overflow == Overflow.Drop) {
+                if (!queue.offer(result))
+                    dropped.incrementAndGet();
+            } else {
+                try {
+                    queue.put(result);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting results and blocks until everything already queued has been written and flushed.
+     */
+    void close() {
+        // waits for in flight submits, including ones blocked on a full queue which the writer thread is still
+        // draining, so every accepted result is on the queue before the final drain
+        closeLock.writeLock().lock();
+        try {
+            if (!running)
+                return;
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        List<TestableSelenium.Result> batch = new ArrayList<>(batchSize);
+        try {
+            while (running) {
+                TestableSelenium.Result first = queue.take();
+                if (TestableOverhead.ENABLED)
+                    TestableOverhead.queueDepth(queue.size() + 1);
+                batch.add(first);
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0)
+                        continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                    TestableSelenium.Result next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    batch.add(next);
+                }
+                write(batch);
+            }
+        } catch (InterruptedException e) {
+            // shutting down, fall through to the final drain
+        }
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private void write(List<TestableSelenium.Result> batch) {
+        if (batch.isEmpty())
+            return;
+        try {
+            for (TestableSelenium.Result result : batch)
+                out.write(result);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Issue writing to Testable result file");
+            e.printStackTrace();
+        }
+        batch.clear();
+    }
+
+}
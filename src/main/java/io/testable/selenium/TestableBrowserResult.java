@@ -0,0 +1,68 @@
+package io.testable.selenium;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * The outcome of running a step against one browser with
+ * {@link TestableTest#runStepOnBrowsers(String, java.util.List, java.util.function.Function)}.
+ *
+ * @param <T> Type of the value returned by the step
+ */
+public class TestableBrowserResult<T> {
+
+    private final WebDriver driver;
+    private final String browser;
+    private final T value;
+    private final Throwable error;
+    private final long duration;
+
+    TestableBrowserResult(WebDriver driver, String browser, T value, Throwable error, long duration) {
+        this.driver = driver;
+        this.browser = browser;
+        this.value = value;
+        this.error = error;
+        this.duration = duration;
+    }
+
+    public WebDriver getDriver() {
+        return driver;
+    }
+
+    /**
+     * @return The browser name from the driver's capabilities, e.g. chrome or firefox
+     */
+    public String getBrowser() {
+        return browser;
+    }
+
+    /**
+     * @return The value returned by the step, null if it failed
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return The error thrown by the step, null if it passed
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isPassed() {
+        return error == null;
+    }
+
+    /**
+     * @return Duration of the step in ms
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "TestableBrowserResult{browser=" + browser + ", passed=" + isPassed() + ", duration=" + duration + "}";
+    }
+
+}
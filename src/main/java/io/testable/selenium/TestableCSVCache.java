@@ -0,0 +1,77 @@
+package io.testable.selenium;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Loaded CSV files shared by all {@link TestableCSVReader}s in the JVM, so a test that calls
+ * {@link TestableSelenium#readCsv(String)} on every iteration only parses the file the first time. Entries are keyed
+ * by path and load mode and remember the last modified time and size of the file, if either changes the file is
+ * loaded again on the next read. Concurrent readers of a file that is not loaded yet wait for a single load.
+ *
+ * Disable with the testable_csv_cache system property.
+ */
+class TestableCSVCache {
+
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("testable_csv_cache", "true"));
+
+    interface Loader {
+        TestableCSVReader.Rows load() throws IOException;
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param key Identifies the file and how it is loaded
+     * @param modified Last modified time of the file
+     * @param length Size of the file in bytes
+     * @param loader Loads the file if there is no entry for this version of it
+     */
+    static TestableCSVReader.Rows get(String key, long modified, long length, Loader loader) throws IOException {
+        if (!ENABLED)
+            return loader.load();
+        Entry entry = entries.compute(key, (k, existing) ->
+                existing != null && existing.modified == modified && existing.length == length && !existing.failed ?
+                        existing : new Entry(modified, length));
+        return entry.get(loader);
+    }
+
+    static void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+
+        private final long modified;
+        private final long length;
+        private volatile TestableCSVReader.Rows rows;
+        private volatile boolean failed;
+
+        private Entry(long modified, long length) {
+            this.modified = modified;
+            this.length = length;
+        }
+
+        private TestableCSVReader.Rows get(Loader loader) throws IOException {
+            TestableCSVReader.Rows current = rows;
+            if (current == null) {
+                synchronized (this) {
+                    current = rows;
+                    if (current == null) {
+                        try {
+                            rows = current = loader.load();
+                        } catch (IOException | RuntimeException e) {
+                            // let the next read try again
+                            failed = true;
+                            throw e;
+                        }
+                    }
+                }
+            }
+            return current;
+        }
+
+    }
+
+}
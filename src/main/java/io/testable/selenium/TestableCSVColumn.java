@@ -0,0 +1,57 @@
+package io.testable.selenium;
+
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * A column of a CSV file resolved once with {@link TestableCSVReader#column(String)}, so reading a field does not
+ * look up the column name on every access. Create handles once (e.g. as fields of your test) and reuse them for every
+ * row. Thread safe.
+ */
+public final class TestableCSVColumn {
+
+    private final String name;
+    private final int index;
+    private final TestableCSVReader.Rows rows;
+
+    TestableCSVColumn(String name, int index, TestableCSVReader.Rows rows) {
+        this.name = name;
+        this.index = index;
+        this.rows = rows;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Position of the column in the header row, starting at 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get the value of this column in a row by index, without materializing the row.
+     *
+     * @param row The row index. The first row in the file after the header row is row 0.
+     * @return The value, or null if the row has fewer columns than the header
+     */
+    public String get(int row) {
+        return rows.get(row, index);
+    }
+
+    /**
+     * Get the value of this column from a record returned by the reader, e.g. by {@link TestableCSVReader#next()}.
+     *
+     * @return The value, or null if the record has fewer columns than the header
+     */
+    public String get(CSVRecord record) {
+        return index < record.size() ? record.get(index) : null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
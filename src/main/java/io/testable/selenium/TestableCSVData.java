@@ -0,0 +1,59 @@
+package io.testable.selenium;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All rows of a CSV file parsed into memory once and never modified afterwards, so a single instance is shared by
+ * every {@link TestableCSVReader} over the same file (see {@link TestableCSVCache}).
+ *
+ * The parsed records are the only copy of the data. {@link TestableCSVColumn} reads a field by its position in the
+ * record, resolved once from the header, instead of by a header map lookup on every access.
+ */
+class TestableCSVData implements TestableCSVReader.Rows {
+
+    private final CSVRecord[] records;
+    private final Map<String, Integer> header;
+
+    TestableCSVData(InputStream in) throws IOException {
+        List<CSVRecord> list = new ArrayList<>();
+        try (CSVParser parser = CSVParser.parse(in, StandardCharsets.UTF_8, CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
+            this.header = new HashMap<>(parser.getHeaderMap());
+            for (CSVRecord record : parser)
+                list.add(record);
+        }
+        this.records = list.toArray(new CSVRecord[0]);
+    }
+
+    @Override
+    public int size() {
+        return records.length;
+    }
+
+    @Override
+    public CSVRecord get(int index) {
+        return records[index];
+    }
+
+    @Override
+    public int column(String name) {
+        Integer column = header.get(name);
+        return column != null ? column : -1;
+    }
+
+    @Override
+    public String get(int index, int column) {
+        CSVRecord record = records[index];
+        return column < record.size() ? record.get(column) : null;
+    }
+
+}
@@ -0,0 +1,69 @@
+package io.testable.selenium;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consumes rows of a CSV exactly once by claiming blocks of rows from the reader as needed. Create one per virtual
+ * user with {@link TestableCSVReader#lease(int)}. Not thread safe, each thread should use its own lease.
+ */
+public class TestableCSVLease {
+
+    private final TestableCSVReader reader;
+    private final int blockSize;
+    private long next;
+    private long end;
+    private boolean exhausted;
+
+    TestableCSVLease(TestableCSVReader reader, int blockSize) {
+        this.reader = reader;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * @return True if there is at least one more row available to this lease. May claim a new block.
+     */
+    public boolean hasNext() {
+        if (exhausted)
+            return false;
+        if (next == end) {
+            next = reader.claimRows(blockSize);
+            end = next + blockSize;
+        }
+        // positions map to rows in increasing order, once one is past the end of the file so are all later ones
+        if (TestableCSVReader.leasedRow(next) >= reader.size()) {
+            exhausted = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the next unused row.
+     *
+     * @return The next row record
+     * @throws RuntimeException When there are no more unused rows
+     */
+    public CSVRecord next() {
+        if (!hasNext())
+            throw new RuntimeException("End of CSV reached");
+        return reader.get((int) TestableCSVReader.leasedRow(next++), false);
+    }
+
+    /**
+     * Get the next 1 or more unused rows. The rows are not necessarily contiguous in the file.
+     *
+     * @param rows Number of rows to return
+     * @return A list of the records
+     * @throws RuntimeException When there are not enough unused rows left
+     */
+    public List<CSVRecord> next(int rows) {
+        List<CSVRecord> records = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++)
+            records.add(next());
+        return records;
+    }
+
+}
@@ -1,33 +1,178 @@
 package io.testable.selenium;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
 
 /**
  * Operations to read from a CSV file while running a test on the Testable platform. When run locally it simply
  * tries to load the file from your local classpath/working directory. It is assumed your CSV file has a header row
  * with column names in the first row.
+ *
+ * By default all rows are parsed into memory when the reader is created. For very large files set the
+ * testable_csv_indexed system property to true (or pass indexed=true) to instead memory-map the file and only keep an
+ * index of where each row starts, parsing rows on demand.
+ *
+ * Loaded files are cached for the lifetime of the JVM and shared by all readers over the same file, so creating a
+ * reader for a file that was already loaded is cheap. The cache notices when the file is modified. Each reader still
+ * has its own iterator for {@link #next()}.
  */
 public class TestableCSVReader {
 
-    private static final int GLOBAL_CLIENT_INDEX = Integer.getInteger("TESTABLE_GLOBAL_CLIENT_INDEX", 0);
-    private static final int ITERATION = Integer.getInteger("TESTABLE_ITERATION", 0);
-    private static final int CONCURRENT_CLIENTS = Integer.getInteger("TESTABLE_CONCURRENT_CLIENTS", 1);
+    public static final boolean INDEXED = Boolean.getBoolean("testable_csv_indexed");
 
-    private List<CSVRecord> records;
-    private int index = CONCURRENT_CLIENTS * ITERATION + GLOBAL_CLIENT_INDEX;
+    private static final Map<String, AtomicLong> leaseCursors = new ConcurrentHashMap<>();
 
+    /**
+     * Random access to the data rows of a CSV file, excluding the header row.
+     */
+    interface Rows {
+        int size();
+        CSVRecord get(int index);
+
+        /**
+         * @return Position of the column in the header row, -1 if there is no such column
+         */
+        int column(String name);
+
+        String get(int index, int column);
+    }
+
+    private final Rows records;
+    private final AtomicLong index;
+    private AtomicLong leasedRows;
+
+    /**
+     * Load the CSV. The global iterator used by {@link #next()} starts at a position determined by the
+     * {@link TestableContext} of the calling thread. A single reader can be shared by multiple virtual user threads,
+     * in which case each call to next() returns different rows.
+     *
+     * @param path Path to the CSV file. Relative to the classpath or working directory.
+     * @throws IOException
+     */
     public TestableCSVReader(String path) throws IOException {
+        this(path, INDEXED);
+    }
+
+    /**
+     * Load the CSV, choosing whether to parse it all into memory or memory-map it.
+     *
+     * @param path Path to the CSV file. Relative to the classpath or working directory.
+     * @param indexed If true the file is memory-mapped and rows are parsed on demand, keeping heap usage flat
+     *                regardless of file size. If false all rows are parsed into memory up front.
+     * @throws IOException
+     */
+    public TestableCSVReader(String path, boolean indexed) throws IOException {
+        TestableContext context = TestableContext.current();
+        this.index = new AtomicLong((long) context.getConcurrentClients() * context.getIteration() + context.getClientIndex());
+        this.records = rows(path, indexed);
+    }
+
+    private Rows rows(String path, boolean indexed) throws IOException {
+        URL url = this.getClass().getClassLoader().getResource(path);
+        String key;
+        long modified;
+        long length;
+        if (url == null) {
+            Path file = Paths.get(path);
+            if (!Files.isRegularFile(file))
+                throw new FileNotFoundException("CSV not found on classpath or working directory: " + path);
+            key = file.toAbsolutePath().toString();
+            modified = Files.getLastModifiedTime(file).toMillis();
+            length = Files.size(file);
+        } else if ("file".equals(url.getProtocol())) {
+            Path file = toPath(url);
+            key = url.toString();
+            modified = Files.getLastModifiedTime(file).toMillis();
+            length = Files.size(file);
+        } else {
+            // connecting opens the underlying stream (and for jars the jar file), so close it once we have the
+            // metadata, otherwise every reader created leaks a file handle
+            URLConnection connection = url.openConnection();
+            connection.setUseCaches(false);
+            key = url.toString();
+            try {
+                if (connection instanceof JarURLConnection) {
+                    // the header fields of a jar connection come from a second connection to the jar itself which
+                    // is never closed, so read them from the entry instead
+                    JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                    modified = entry.getTime();
+                    length = entry.getSize();
+                } else {
+                    modified = connection.getLastModified();
+                    length = connection.getContentLengthLong();
+                }
+            } finally {
+                connection.getInputStream().close();
+            }
+        }
+        // shared by every reader of this version of the file so leases never hand out a row twice in this JVM
+        leasedRows = leaseCursors.computeIfAbsent(key + "@" + modified + ":" + length, k -> new AtomicLong());
+        return TestableCSVCache.get((indexed ? "indexed:" : "memory:") + key, modified, length, () -> {
+            long started = TestableOverhead.ENABLED ? System.nanoTime() : 0;
+            Rows rows = indexed ? new TestableIndexedCSV(toFile(path)) : load(path);
+            if (TestableOverhead.ENABLED)
+                TestableOverhead.csvLoaded(path, System.nanoTime() - started);
+            return rows;
+        });
+    }
+
+    private Rows load(String path) throws IOException {
         InputStream fileIs = this.getClass().getClassLoader().getResourceAsStream(path);
-        CSVParser parser = CSVParser.parse(fileIs, StandardCharsets.UTF_8, CSVFormat.DEFAULT.withFirstRecordAsHeader());
-        this.records = parser.getRecords();
+        if (fileIs == null)
+            fileIs = Files.newInputStream(toFile(path));
+        return new TestableCSVData(fileIs);
+    }
+
+    /**
+     * Discard all cached CSV files. Readers that were already created keep working with the data they loaded.
+     */
+    public static void clearCache() {
+        TestableCSVCache.clear();
+    }
+
+    private Path toFile(String path) throws IOException {
+        URL url = this.getClass().getClassLoader().getResource(path);
+        if (url == null) {
+            Path file = Paths.get(path);
+            if (!Files.isRegularFile(file))
+                throw new FileNotFoundException("CSV not found on classpath or working directory: " + path);
+            return file;
+        }
+        if ("file".equals(url.getProtocol()))
+            return toPath(url);
+        // packaged inside a jar, extract it so it can be mapped
+        Path file = Files.createTempFile("testable-csv", ".csv");
+        file.toFile().deleteOnExit();
+        try (InputStream is = url.openStream()) {
+            Files.copy(is, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    private static Path toPath(URL url) throws IOException {
+        try {
+            return Paths.get(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
     }
 
     /**
@@ -37,7 +182,7 @@ public class TestableCSVReader {
      * @return A row record
      */
     public CSVRecord get(int index) {
-        return this.records.get(index % this.records.size());
+        return row(index, true);
     }
 
     /**
@@ -49,9 +194,33 @@ public class TestableCSVReader {
      * @return A row record
      */
     public CSVRecord get(int index, boolean wrap) {
-        if (!wrap && index >= this.records.size())
-            throw new RuntimeException("End of CSV reached");
-        return this.records.get(index % this.records.size());
+        return row(index, wrap);
+    }
+
+    /**
+     * Resolve a column by name once so its values can be read without a header lookup on every access.
+     *
+     * <pre>
+     * {@code TestableCSVColumn username = reader.column("username");
+     * String value = username.get(reader.next());}
+     * </pre>
+     *
+     * @param name The column name from the header row
+     * @return A handle to read the column from any row of this file
+     * @throws IllegalArgumentException If there is no such column
+     */
+    public TestableCSVColumn column(String name) {
+        int column = records.column(name);
+        if (column < 0)
+            throw new IllegalArgumentException("No column " + name + " in CSV header");
+        return new TestableCSVColumn(name, column, records);
+    }
+
+    /**
+     * @return The number of rows in the file, not including the header row.
+     */
+    public int size() {
+        return this.records.size();
     }
 
     /**
@@ -60,8 +229,66 @@ public class TestableCSVReader {
      * @return A random row record
      */
     public CSVRecord random() {
-        int index = (int)Math.floor(Math.random() * records.size());
-        return get(index);
+        return get(ThreadLocalRandom.current().nextInt(records.size()));
+    }
+
+    /**
+     * Sample rows uniformly at random with replacement. Uses a per-thread random number generator so any number of
+     * threads can share the sampler without contending.
+     *
+     * @return A sampler that can be shared by all virtual user threads
+     */
+    public TestableCSVSampler uniform() {
+        return TestableCSVSampler.uniform(this);
+    }
+
+    /**
+     * Sample every row exactly once per pass through the file, in a different random order each pass. Unlike
+     * {@link #random()} there are no hot rows: over a pass every row is used the same number of times. Test runners
+     * in the same iteration share the same order and each takes different positions from it, so they do not use the
+     * same row in the same pass either. Each iteration uses a different order, so creating a new sampler every
+     * iteration does not keep starting with the same rows.
+     *
+     * @return A sampler that can be shared by all virtual user threads
+     */
+    public TestableCSVSampler shuffled() {
+        return shuffled(0);
+    }
+
+    /**
+     * Same as {@link #shuffled()} with a different order for each seed.
+     *
+     * @param seed Determines the order of each pass, use the same seed on all test runners
+     * @return A sampler that can be shared by all virtual user threads
+     */
+    public TestableCSVSampler shuffled(long seed) {
+        return TestableCSVSampler.shuffled(this, seed);
+    }
+
+    /**
+     * Sample rows with replacement with a probability proportional to a numeric column, e.g. to pick popular
+     * products more often than others. Each draw takes constant time however many rows there are. Blank weights
+     * count as 0.
+     *
+     * @param column Name of the column with the weight of each row
+     * @return A sampler that can be shared by all virtual user threads
+     * @throws IllegalArgumentException If there is no such column, a weight is negative or not a number, or all
+     *                                  weights are 0
+     */
+    public TestableCSVSampler weighted(String column) {
+        return TestableCSVSampler.weighted(this, column(column));
+    }
+
+    /**
+     * Sample rows uniformly with replacement in a repeatable order: the same seed, virtual user and iteration always
+     * produce the same sequence of rows, so a failing run can be reproduced with exactly the same data. The virtual
+     * user and iteration come from the {@link TestableContext} of the calling thread.
+     *
+     * @param seed Seed shared by the whole test
+     * @return A sampler for use by the calling virtual user only, it is not thread safe
+     */
+    public TestableCSVSampler seeded(long seed) {
+        return TestableCSVSampler.seeded(this, seed);
     }
 
     /**
@@ -113,10 +340,57 @@ public class TestableCSVReader {
      */
     public List<CSVRecord> next(int rows, boolean wrap) {
         List<CSVRecord> records = new ArrayList<>(rows);
+        long start = index.getAndAdd(rows);
         for(int i = 0; i < rows; i++) {
-            records.add(get(index++, wrap));
+            records.add(row(start + i, wrap));
         }
         return records;
     }
 
+    /**
+     * Create a lease for consuming rows from this file exactly once, without wrapping. The lease claims blocks of
+     * rows from a lock-free cursor as it needs them, so many virtual user threads can each hold their own lease
+     * without contending on every row and without ever seeing the same row. The cursor is shared by all readers of
+     * the same file in this JVM, so leases created by different readers (e.g. one reader per iteration) and with
+     * different block sizes never overlap. Rows are striped across test runners by the Testable client index (row N
+     * of this process is row N * TESTABLE_CONCURRENT_CLIENTS + TESTABLE_GLOBAL_CLIENT_INDEX of the file) so runners
+     * never claim the same rows either. Use this for datasets where each row can only be used once (one-time tokens,
+     * accounts, etc).
+     *
+     * Rows are only unique within one JVM: a test runner that starts a new JVM for its next iteration starts over
+     * from the beginning of its stripe, so one-time rows should be consumed in a single iteration (multiple
+     * iterations inside the JVM with {@link TestableSelenium#runVirtualUsers} are fine).
+     *
+     * @param blockSize Number of rows to claim at a time. Larger blocks mean less coordination but rows left
+     *                  unused in a block when the test ends are skipped.
+     * @return A lease that should be used by a single thread
+     */
+    public TestableCSVLease lease(int blockSize) {
+        return new TestableCSVLease(this, blockSize);
+    }
+
+    /**
+     * Claim rows for a lease.
+     *
+     * @return The first of the claimed positions in this process's stripe, see {@link #leasedRow(long)}
+     */
+    long claimRows(int rows) {
+        return leasedRows.getAndAdd(rows);
+    }
+
+    /**
+     * @return The row in the file for a position in this process's stripe
+     */
+    static long leasedRow(long position) {
+        TestableContext process = TestableContext.process();
+        return position * process.getConcurrentClients() + process.getClientIndex();
+    }
+
+    private CSVRecord row(long position, boolean wrap) {
+        int size = this.records.size();
+        if (!wrap && position >= size)
+            throw new RuntimeException("End of CSV reached");
+        return this.records.get((int) (position % size));
+    }
+
 }
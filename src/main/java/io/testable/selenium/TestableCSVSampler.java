@@ -0,0 +1,218 @@
+package io.testable.selenium;
+
+import org.apache.commons.csv.CSVRecord;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses which rows of a CSV file to use. Create one with {@link TestableCSVReader#uniform()},
+ * {@link TestableCSVReader#shuffled()}, {@link TestableCSVReader#weighted(String)} or
+ * {@link TestableCSVReader#seeded(long)}, or extend this class to plug in your own strategy.
+ *
+ * Use {@link #nextIndex()} together with {@link TestableCSVColumn} to read fields without materializing rows.
+ */
+public abstract class TestableCSVSampler {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    protected final TestableCSVReader reader;
+
+    protected TestableCSVSampler(TestableCSVReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return The index of the next row to use, between 0 and {@link TestableCSVReader#size()} - 1
+     */
+    public abstract int nextIndex();
+
+    /**
+     * @return The next row to use
+     */
+    public CSVRecord next() {
+        return reader.get(nextIndex());
+    }
+
+    static TestableCSVSampler uniform(TestableCSVReader reader) {
+        return new TestableCSVSampler(reader) {
+            @Override
+            public int nextIndex() {
+                return ThreadLocalRandom.current().nextInt(reader.size());
+            }
+        };
+    }
+
+    static TestableCSVSampler seeded(TestableCSVReader reader, long seed) {
+        TestableContext context = TestableContext.current();
+        SplittableRandom random = new SplittableRandom(
+                mix(mix(seed + context.getClientIndex() * GOLDEN_GAMMA) + context.getIteration()));
+        return new TestableCSVSampler(reader) {
+            @Override
+            public int nextIndex() {
+                return random.nextInt(reader.size());
+            }
+        };
+    }
+
+    static TestableCSVSampler shuffled(TestableCSVReader reader, long seed) {
+        return new Shuffled(reader, seed);
+    }
+
+    static TestableCSVSampler weighted(TestableCSVReader reader, TestableCSVColumn column) {
+        return new Weighted(reader, column);
+    }
+
+    /**
+     * Every row once per pass in a different random order each pass. Rather than storing a shuffled copy of the
+     * indexes, position i of pass p is mapped to a row with a small Feistel network keyed by the seed and pass
+     * number. This is a bijection so no row repeats within a pass and needs no memory. Threads claim positions in
+     * blocks so they only touch the shared cursor once every {@link #BLOCK_SIZE} rows.
+     *
+     * Blocks are striped across test runners like {@link TestableCSVReader#lease(int)} so runners using the same
+     * seed never get the same row in the same pass. The permutation is also keyed by the iteration of the virtual user
+     * that created the sampler, so a test that creates a new sampler every iteration does not start each iteration
+     * with the same rows.
+     */
+    private static class Shuffled extends TestableCSVSampler {
+
+        private static final int ROUNDS = 4;
+        private static final int BLOCK_SIZE = 64;
+
+        private final AtomicLong claimed = new AtomicLong();
+        private final ThreadLocal<long[]> block = ThreadLocal.withInitial(() -> new long[2]);
+        private final long seed;
+        private final long iteration;
+        private final int size;
+        private final int halfBits;
+        private final int halfMask;
+
+        private Shuffled(TestableCSVReader reader, long seed) {
+            super(reader);
+            this.seed = seed;
+            this.iteration = TestableContext.current().getIteration();
+            this.size = reader.size();
+            int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, size - 1));
+            this.halfBits = Math.max(1, (bits + 1) / 2);
+            this.halfMask = (1 << halfBits) - 1;
+        }
+
+        @Override
+        public int nextIndex() {
+            if (size == 0)
+                throw new IndexOutOfBoundsException("CSV has no rows");
+            long[] range = block.get();
+            if (range[0] == range[1]) {
+                TestableContext process = TestableContext.process();
+                range[0] = (claimed.getAndIncrement() * process.getConcurrentClients() + process.getClientIndex())
+                        * BLOCK_SIZE;
+                range[1] = range[0] + BLOCK_SIZE;
+            }
+            long position = range[0]++;
+            long key = mix(mix(seed + iteration * GOLDEN_GAMMA) + (position / size) * GOLDEN_GAMMA);
+            long index = position % size;
+            // cycle walk: the network permutes [0, 2^(2 * halfBits)), repeat until we land inside [0, size)
+            do {
+                index = permute(index, key);
+            } while (index >= size);
+            return (int) index;
+        }
+
+        private long permute(long value, long key) {
+            long left = value >>> halfBits;
+            long right = value & halfMask;
+            for (int round = 0; round < ROUNDS; round++) {
+                long next = left ^ (mix(key + round * GOLDEN_GAMMA + right) & halfMask);
+                left = right;
+                right = next;
+            }
+            return (left << halfBits) | right;
+        }
+
+    }
+
+    /**
+     * Rows chosen with probability proportional to a numeric column using Vose's alias method: O(n) to build the
+     * table once, then one random index and one random double per draw regardless of how skewed the weights are.
+     */
+    private static class Weighted extends TestableCSVSampler {
+
+        private final double[] probability;
+        private final int[] alias;
+
+        private Weighted(TestableCSVReader reader, TestableCSVColumn column) {
+            super(reader);
+            int size = reader.size();
+            double[] weights = new double[size];
+            double total = 0;
+            for (int row = 0; row < size; row++) {
+                String value = column.get(row);
+                double weight = value == null || value.trim().isEmpty() ? 0 : parse(column, row, value.trim());
+                if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight))
+                    throw new IllegalArgumentException(
+                            "Invalid weight " + value + " in column " + column + " row " + row);
+                weights[row] = weight;
+                total += weight;
+            }
+            if (total <= 0)
+                throw new IllegalArgumentException("Column " + column + " has no positive weights");
+
+            this.probability = new double[size];
+            this.alias = new int[size];
+            int[] small = new int[size];
+            int[] large = new int[size];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int row = 0; row < size; row++) {
+                weights[row] = weights[row] * size / total;
+                if (weights[row] < 1)
+                    small[smallCount++] = row;
+                else
+                    large[largeCount++] = row;
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                probability[less] = weights[less];
+                alias[less] = more;
+                weights[more] = weights[more] + weights[less] - 1;
+                if (weights[more] < 1)
+                    small[smallCount++] = more;
+                else
+                    large[largeCount++] = more;
+            }
+            // whatever is left is 1 up to rounding error
+            while (largeCount > 0)
+                probability[large[--largeCount]] = 1;
+            while (smallCount > 0)
+                probability[small[--smallCount]] = 1;
+        }
+
+        private static double parse(TestableCSVColumn column, int row, String value) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid weight " + value + " in column " + column + " row " + row);
+            }
+        }
+
+        @Override
+        public int nextIndex() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int row = random.nextInt(probability.length);
+            return random.nextDouble() < probability[row] ? row : alias[row];
+        }
+
+    }
+
+    /**
+     * The SplitMix64 finalizer, spreads similar inputs (consecutive pass numbers, client indexes) over all 64 bits.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+}
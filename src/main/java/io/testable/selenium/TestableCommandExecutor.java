@@ -0,0 +1,59 @@
+package io.testable.selenium;
+
+import org.openqa.selenium.logging.LocalLogs;
+import org.openqa.selenium.logging.NeedsLocalLogs;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.Response;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times every WebDriver wire command with {@link System#nanoTime()} and records it in milliseconds into a
+ * {@link TestableMetrics.Timer} named after the command (e.g. findElement, clickElement, get) in the WebDriver
+ * namespace, so timing a command allocates nothing and is written once per window as a TimingRollup. The resource is
+ * the name of the innermost open {@link TestableStep} on the calling thread, or else the step started with
+ * {@link TestableTest#startStep(String)} on that thread, if any. Enable with the <code>testable_command_timings</code>
+ * system property.
+ */
+class TestableCommandExecutor implements CommandExecutor, NeedsLocalLogs {
+
+    static final String NAMESPACE = "WebDriver";
+
+    private static final Map<String, TestableMetrics.Timer> timers = new ConcurrentHashMap<>();
+
+    private final CommandExecutor delegate;
+
+    TestableCommandExecutor(CommandExecutor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Response execute(Command command) throws IOException {
+        long started = System.nanoTime();
+        try {
+            return delegate.execute(command);
+        } finally {
+            record(command.getName(), System.nanoTime() - started);
+        }
+    }
+
+    @Override
+    public void setLocalLogs(LocalLogs logs) {
+        if (delegate instanceof NeedsLocalLogs)
+            ((NeedsLocalLogs) delegate).setLocalLogs(logs);
+    }
+
+    private static void record(String command, long nanos) {
+        TestableMetrics.Timer timer = timers.get(command);
+        if (timer == null)
+            timer = timers.computeIfAbsent(command, name -> TestableMetrics.timer(NAMESPACE, name, "ms"));
+        TestableStep step = TestableStep.current();
+        timer.record(step != null ? step.getName() : TestableTest.currentLegacyStepName(),
+                TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+}
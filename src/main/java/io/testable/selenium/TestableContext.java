@@ -0,0 +1,97 @@
+package io.testable.selenium;
+
+/**
+ * Identifies the virtual user and iteration that the current thread is running as. By default this comes from the
+ * system properties that Testable passes to the test process (one virtual user per JVM). To drive several virtual
+ * users from one JVM, bind a context to each virtual user thread with {@link #run(Runnable)} or use
+ * {@link TestableSelenium#runVirtualUsers(int, int, java.util.function.Consumer)}. Screenshot names and CSV
+ * iteration use the context of the calling thread.
+ */
+public final class TestableContext {
+
+    private static final TestableContext PROCESS = new TestableContext(
+            Integer.getInteger("TESTABLE_GLOBAL_CLIENT_INDEX", 0),
+            Integer.getInteger("TESTABLE_ITERATION", 0),
+            Integer.getInteger("TESTABLE_CONCURRENT_CLIENTS", 1));
+
+    private static final ThreadLocal<TestableContext> CURRENT = new ThreadLocal<>();
+
+    private final int clientIndex;
+    private final int iteration;
+    private final int concurrentClients;
+
+    public TestableContext(int clientIndex, int iteration, int concurrentClients) {
+        this.clientIndex = clientIndex;
+        this.iteration = iteration;
+        this.concurrentClients = Math.max(1, concurrentClients);
+    }
+
+    /**
+     * @return The context bound to the calling thread, or the process wide context from the Testable system
+     *         properties if none is bound.
+     */
+    public static TestableContext current() {
+        TestableContext context = CURRENT.get();
+        return context != null ? context : PROCESS;
+    }
+
+    /**
+     * @return The context built from the Testable system properties for this process.
+     */
+    public static TestableContext process() {
+        return PROCESS;
+    }
+
+    /**
+     * @return The global index of this virtual user across all regions and test runners.
+     */
+    public int getClientIndex() {
+        return clientIndex;
+    }
+
+    /**
+     * @return The iteration this virtual user is on, starting at 0.
+     */
+    public int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * @return The total number of concurrent virtual users across the test.
+     */
+    public int getConcurrentClients() {
+        return concurrentClients;
+    }
+
+    /**
+     * @return A context for the same virtual user on its next iteration.
+     */
+    public TestableContext nextIteration() {
+        return new TestableContext(clientIndex, iteration + 1, concurrentClients);
+    }
+
+    /**
+     * Run the task on the calling thread with this context bound, restoring the previous context afterwards.
+     *
+     * @param task The code to run as this virtual user
+     */
+    public void run(Runnable task) {
+        TestableContext previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            task.run();
+        } finally {
+            if (previous != null)
+                CURRENT.set(previous);
+            else
+                CURRENT.remove();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TestableContext{clientIndex=" + clientIndex + ", iteration=" + iteration +
+                ", concurrentClients=" + concurrentClients + "}";
+    }
+
+}
@@ -1,6 +1,6 @@
 package io.testable.selenium;
 
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class TestableFinishSuite {
 
@@ -13,7 +13,7 @@ public class TestableFinishSuite {
     public TestableFinishSuite(TestableStartSuite start, boolean hasError) {
         this.uuid = start.getUuid();
         this.name = start.getName();
-        this.duration = System.currentTimeMillis() - start.getStarted();
+        this.duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start.getStartedNanos());
         this.hasError = hasError;
     }
 
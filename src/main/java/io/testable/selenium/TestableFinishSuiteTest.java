@@ -2,6 +2,7 @@ package io.testable.selenium;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
 
 public class TestableFinishSuiteTest {
 
@@ -26,12 +27,14 @@ public class TestableFinishSuiteTest {
         this.uuid = startSuiteTest.getUuid();
         this.name = startSuiteTest.getName();
         this.finished = startSuiteTest.getStarted() > 0 ? System.currentTimeMillis() : 0;
-        this.duration = startSuiteTest.getStarted() > 0 ? this.finished - startSuiteTest.getStarted() : 0;
+        this.duration = startSuiteTest.getStarted() > 0 ?
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startSuiteTest.getStartedNanos()) : 0;
         this.state = t!= null ? "failed": (skipped ? "skipped" : (passed ? "passed" : "na"));
         if (t != null) {
             this.errorType = t.getClass().getSimpleName();
             this.error = t.getMessage();
-            if (captureTrace) {
+            // repeats of an error already reported with its trace are only counted, see TestableLogFilter
+            if (captureTrace && TestableLogFilter.firstStepFailure(t)) {
                 StringWriter sw = new StringWriter();
                 PrintWriter pw = new PrintWriter(sw);
                 t.printStackTrace(pw);
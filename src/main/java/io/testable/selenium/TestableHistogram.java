@@ -0,0 +1,122 @@
+package io.testable.selenium;
+
+import java.util.Arrays;
+
+/**
+ * A compact log-linear histogram of non-negative long values in the style of HdrHistogram. Values below 128 are
+ * counted exactly, larger values fall into one of 64 linear sub-buckets per power of two which keeps the relative
+ * error of any reported percentile under 1/64 (~1.6%). The bucket array only grows as large as the biggest value
+ * recorded requires, so a histogram of millisecond timings needs well under 10KB.
+ *
+ * Instances are not thread safe.
+ */
+class TestableHistogram {
+
+    private static final int LINEAR_BUCKETS = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private long[] counts = new long[LINEAR_BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    void record(long value) {
+        record(value, 1);
+    }
+
+    void record(long value, long times) {
+        if (times <= 0)
+            return;
+        if (value < 0)
+            value = 0;
+        int index = indexOf(value);
+        if (index >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length + SUB_BUCKETS));
+        counts[index] += times;
+        count += times;
+        sum += value * times;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+    }
+
+    void add(TestableHistogram other) {
+        if (other.count == 0)
+            return;
+        if (other.counts.length > counts.length)
+            counts = Arrays.copyOf(counts, other.counts.length);
+        for (int i = 0; i < other.counts.length; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getSum() {
+        return sum;
+    }
+
+    long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    long getMax() {
+        return count > 0 ? max : 0;
+    }
+
+    double getMean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The highest value that is equivalent (within the histogram's precision) to the value at the
+     *         percentile, capped at the maximum recorded value.
+     */
+    long getValueAtPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(highestEquivalentValue(i), max);
+        }
+        return max;
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS)
+            return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift);
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (subBucket - SUB_BUCKETS);
+    }
+
+    private static long highestEquivalentValue(int index) {
+        if (index < LINEAR_BUCKETS)
+            return index;
+        int offset = index - LINEAR_BUCKETS;
+        int shift = offset / SUB_BUCKETS + 1;
+        long subBucket = offset % SUB_BUCKETS + SUB_BUCKETS;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+
+}
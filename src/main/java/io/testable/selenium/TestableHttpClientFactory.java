@@ -0,0 +1,158 @@
+package io.testable.selenium;
+
+import com.google.common.base.Strings;
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Dispatcher;
+import okhttp3.Response;
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.internal.OkHttpClient;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP transport for the WebDriver command channel of every driver created by
+ * {@link TestableSelenium#newWebDriver(org.openqa.selenium.Capabilities)}. Every WebDriver command is a small HTTP
+ * round trip to the local driver, so all sessions in the JVM share one OkHttp connection pool and dispatcher and
+ * keep their connections alive between commands instead of paying for a new connection each time. Selenium's own
+ * factory keeps at most 5 idle connections which is not enough once more than a handful of sessions run
+ * concurrently. Sockets are opened with TCP_NODELAY so small command requests are not held back by Nagle's
+ * algorithm.
+ *
+ * Configured with the following system properties:
+ *
+ * <ul>
+ *     <li>testable_http_max_idle_connections: Idle connections kept in the pool, default 64</li>
+ *     <li>testable_http_keep_alive_ms: How long an idle connection is kept, default 5 minutes</li>
+ *     <li>testable_http_connect_timeout_ms: Connect timeout, default 2 minutes</li>
+ *     <li>testable_http_read_timeout_ms: Read timeout for a single command, default 3 hours</li>
+ * </ul>
+ *
+ * The timeouts default to the same values as Selenium's own client since some commands (e.g. creating a session on
+ * a busy grid) legitimately take a long time.
+ */
+class TestableHttpClientFactory implements HttpClient.Factory {
+
+    static final int MAX_IDLE_CONNECTIONS = Integer.getInteger("testable_http_max_idle_connections", 64);
+    static final long KEEP_ALIVE_MS = Long.getLong("testable_http_keep_alive_ms", TimeUnit.MINUTES.toMillis(5));
+    static final long CONNECT_TIMEOUT_MS =
+            Long.getLong("testable_http_connect_timeout_ms", TimeUnit.MINUTES.toMillis(2));
+    static final long READ_TIMEOUT_MS = Long.getLong("testable_http_read_timeout_ms", TimeUnit.HOURS.toMillis(3));
+
+    private static final TestableHttpClientFactory SHARED = new TestableHttpClientFactory();
+
+    private final ConnectionPool pool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+    private final okhttp3.OkHttpClient base;
+
+    private TestableHttpClientFactory() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Integer.MAX_VALUE);
+        dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+        base = new okhttp3.OkHttpClient.Builder()
+                .connectionPool(pool)
+                .dispatcher(dispatcher)
+                .socketFactory(new NoDelaySocketFactory(SocketFactory.getDefault()))
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .addNetworkInterceptor(chain -> {
+                    // same as Selenium's client, stop OkHttp from silently resending a command on 408
+                    Response response = chain.proceed(chain.request());
+                    return response.code() == 408 ?
+                            response.newBuilder().code(500).message("Server-Side Timeout").build() : response;
+                })
+                .build();
+    }
+
+    static TestableHttpClientFactory shared() {
+        return SHARED;
+    }
+
+    @Override
+    public HttpClient.Builder builder() {
+        HttpClient.Builder builder = new HttpClient.Builder() {
+            @Override
+            public HttpClient createClient(URL url) {
+                // newBuilder() shares the connection pool, dispatcher and interceptors with the base client
+                okhttp3.OkHttpClient.Builder client = base.newBuilder()
+                        .connectTimeout(connectionTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                        .readTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                if (proxy != null)
+                    client.proxy(proxy);
+                String info = url.getUserInfo();
+                if (!Strings.isNullOrEmpty(info)) {
+                    String[] parts = info.split(":", 2);
+                    String credentials = Credentials.basic(parts[0], parts.length > 1 ? parts[1] : null);
+                    client.authenticator((route, response) -> response.request().header("Authorization") != null ?
+                            null : response.request().newBuilder().header("Authorization", credentials).build());
+                }
+                return new OkHttpClient(client.build(), url);
+            }
+        };
+        return builder.connectionTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+                .readTimeout(Duration.ofMillis(READ_TIMEOUT_MS));
+    }
+
+    /**
+     * Called by Selenium every time a session quits. The pool is shared by all sessions in the JVM, so evicting here
+     * would close the idle connections of every other live session. Idle connections are instead closed by the pool
+     * once they reach the keep-alive timeout, and all of them when the JVM shuts down (see {@link #close()}).
+     */
+    @Override
+    public void cleanupIdleClients() {
+    }
+
+    /**
+     * Close all idle connections of the shared pool.
+     */
+    static void close() {
+        SHARED.pool.evictAll();
+    }
+
+    private static class NoDelaySocketFactory extends SocketFactory {
+
+        private final SocketFactory delegate;
+
+        private NoDelaySocketFactory(SocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket noDelay(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+
+    }
+
+}
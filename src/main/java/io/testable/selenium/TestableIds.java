@@ -0,0 +1,28 @@
+package io.testable.selenium;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates UUID formatted ids for suites and steps without going to {@link java.security.SecureRandom} each time.
+ * One random UUID is generated per JVM and the low 48 bits are replaced with a sequence number, keeping ids unique
+ * across JVMs (via the random bits) and within a JVM (via the sequence).
+ */
+class TestableIds {
+
+    private static final long MOST_SIGNIFICANT;
+    private static final long LEAST_SIGNIFICANT;
+    private static final long SEQUENCE_MASK = 0xFFFFFFFFFFFFL;
+    private static final AtomicLong sequence = new AtomicLong();
+
+    static {
+        UUID seed = UUID.randomUUID();
+        MOST_SIGNIFICANT = seed.getMostSignificantBits();
+        LEAST_SIGNIFICANT = seed.getLeastSignificantBits() & ~SEQUENCE_MASK;
+    }
+
+    static String next() {
+        return new UUID(MOST_SIGNIFICANT, LEAST_SIGNIFICANT | (sequence.incrementAndGet() & SEQUENCE_MASK)).toString();
+    }
+
+}
@@ -0,0 +1,156 @@
+package io.testable.selenium;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CSV rows backed by a memory-mapped file. Loading only scans the file once to build a {@code long[]} of row start
+ * offsets, and each row is parsed on demand when requested. Heap usage is 8 bytes per row regardless of how wide
+ * the rows are. Quoted values containing line breaks are supported.
+ *
+ * Records returned by {@link #get(int)} are parsed in isolation, so {@link CSVRecord#getRecordNumber()} does not
+ * reflect their position in the file.
+ */
+class TestableIndexedCSV implements TestableCSVReader.Rows {
+
+    private static final int SEGMENT_BITS = 30;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+    private final MappedByteBuffer[] segments;
+    private final long length;
+    private final CSVFormat format;
+    private final Map<String, Integer> header = new HashMap<>();
+    private long[] offsets = new long[1024];
+    private int size;
+
+    TestableIndexedCSV(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.length = channel.size();
+            int count = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            this.segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, length - position));
+            }
+        }
+        long headerStart = hasBom() ? 3 : 0;
+        scan(headerStart);
+        if (size == 0)
+            throw new IOException("CSV file " + file + " has no header row");
+        String headerRow = read(offsets[0], end(0));
+        List<String> names = new ArrayList<>();
+        for (String name : parseSingle(headerRow, CSVFormat.DEFAULT)) {
+            header.putIfAbsent(name, names.size());
+            names.add(name);
+        }
+        this.format = CSVFormat.DEFAULT.withHeader(names.toArray(new String[0]));
+        // drop the header row from the index
+        System.arraycopy(offsets, 1, offsets, 0, --size);
+        this.offsets = Arrays.copyOf(offsets, size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public CSVRecord get(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+        return parseSingle(read(offsets[index], end(index)), format);
+    }
+
+    @Override
+    public int column(String name) {
+        Integer column = header.get(name);
+        return column != null ? column : -1;
+    }
+
+    @Override
+    public String get(int index, int column) {
+        CSVRecord record = get(index);
+        return column < record.size() ? record.get(column) : null;
+    }
+
+    private long end(int index) {
+        return index + 1 < size ? offsets[index + 1] : length;
+    }
+
+    private void scan(long position) {
+        boolean inQuotes = false;
+        long rowStart = position;
+        boolean rowHasContent = false;
+        for (long i = position; i < length; i++) {
+            byte b = byteAt(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+                rowHasContent = true;
+            } else if (b == '\n' && !inQuotes) {
+                if (rowHasContent)
+                    addRow(rowStart);
+                rowStart = i + 1;
+                rowHasContent = false;
+            } else if (b != '\r') {
+                rowHasContent = true;
+            }
+        }
+        if (rowHasContent)
+            addRow(rowStart);
+    }
+
+    private void addRow(long start) {
+        if (size == offsets.length)
+            offsets = Arrays.copyOf(offsets, size * 2);
+        offsets[size++] = start;
+    }
+
+    private boolean hasBom() {
+        return length >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF;
+    }
+
+    private byte byteAt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+    }
+
+    private String read(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        int copied = 0;
+        while (copied < bytes.length) {
+            long position = start + copied;
+            ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+            segment.position((int) (position & (SEGMENT_SIZE - 1)));
+            int chunk = Math.min(bytes.length - copied, segment.remaining());
+            segment.get(bytes, copied, chunk);
+            copied += chunk;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static CSVRecord parseSingle(String row, CSVFormat format) {
+        try (CSVParser parser = CSVParser.parse(row, format)) {
+            Iterator<CSVRecord> it = parser.iterator();
+            if (!it.hasNext())
+                throw new IllegalStateException("Empty CSV row");
+            return it.next();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
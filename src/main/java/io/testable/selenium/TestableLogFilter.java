@@ -0,0 +1,213 @@
+package io.testable.selenium;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which log messages and error traces get written, before any message is rendered:
+ *
+ * <ul>
+ *     <li>Messages below the <code>testable_log_level</code> threshold are discarded.</li>
+ *     <li>With <code>testable_log_rate_limit</code> set, at most that many messages per level per second are written.
+ *     Fatal messages are never rate limited.</li>
+ *     <li>With <code>testable_log_dedup</code> enabled, exceptions are fingerprinted by type and top stack frames.
+ *     Only the first occurrence of a fingerprint is written with its stack trace, later ones are counted. The same
+ *     applies to the error traces of failed test steps.</li>
+ * </ul>
+ *
+ * Repeat and rate limit counts are written periodically as a single log message per fingerprint or level.
+ */
+class TestableLogFilter {
+
+    static final TestableLog.Level DEFAULT_LEVEL = TestableLog.Level.Trace;
+    static final TestableLog.Level LEVEL = parseLevel(System.getProperty("testable_log_level"));
+    static final int RATE_LIMIT = Integer.getInteger("testable_log_rate_limit", 0);
+    static final boolean DEDUP = Boolean.getBoolean("testable_log_dedup");
+    static final int DEDUP_FRAMES = Integer.getInteger("testable_log_dedup_frames", 5);
+    static final int DEDUP_MAX_FINGERPRINTS = Integer.getInteger("testable_log_dedup_max_fingerprints", 10000);
+    static final long REPORT_INTERVAL_MS = Long.getLong("testable_log_report_interval_ms", 10000);
+
+    private static final Map<TestableLog.Level, Limiter> limiters = new EnumMap<>(TestableLog.Level.class);
+    private static final Map<String, Repeat> repeats = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService scheduler;
+    static {
+        for (TestableLog.Level level : TestableLog.Level.values())
+            limiters.put(level, new Limiter());
+    }
+
+    static boolean isEnabled(TestableLog.Level level) {
+        return level.ordinal() >= LEVEL.ordinal();
+    }
+
+    /**
+     * @return True if a message at this level is enabled and within the rate limit
+     */
+    static boolean accept(TestableLog.Level level) {
+        if (!isEnabled(level))
+            return false;
+        if (RATE_LIMIT <= 0 || level == TestableLog.Level.Fatal)
+            return true;
+        ensureScheduled();
+        return limiters.get(level).tryAcquire();
+    }
+
+    /**
+     * @return True if the stack trace of this error should be written: its level is enabled, it is not a repeat
+     *         (repeats are counted instead) and it is within the rate limit
+     */
+    static boolean accept(TestableLog.Level level, Throwable t) {
+        if (!DEDUP)
+            return accept(level);
+        if (!isEnabled(level))
+            return false;
+        String fingerprint = fingerprint(level.name(), t);
+        // repeats are counted before rate limiting so they do not use up the budget for new messages, and a new
+        // error is only remembered once it is accepted so a rate limited first occurrence is logged next time
+        return !countRepeat(fingerprint) && accept(level) && register(fingerprint, level.name(), level, t);
+    }
+
+    /**
+     * @return True if the stack trace of this step failure should be written, false if it is a repeat that was counted
+     */
+    static boolean firstStepFailure(Throwable t) {
+        return firstOccurrence("Step failure", TestableLog.Level.Error, t);
+    }
+
+    private static boolean firstOccurrence(String category, TestableLog.Level level, Throwable t) {
+        if (!DEDUP)
+            return true;
+        String fingerprint = fingerprint(category, t);
+        return !countRepeat(fingerprint) && register(fingerprint, category, level, t);
+    }
+
+    /**
+     * @return True if this fingerprint was seen before, in which case the repeat was counted
+     */
+    private static boolean countRepeat(String fingerprint) {
+        Repeat repeat = repeats.get(fingerprint);
+        if (repeat == null)
+            return false;
+        repeat.count.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return True if this is the first occurrence of the fingerprint, false if another thread registered it first
+     */
+    private static boolean register(String fingerprint, String category, TestableLog.Level level, Throwable t) {
+        if (repeats.size() >= DEDUP_MAX_FINGERPRINTS)
+            return true;
+        ensureScheduled();
+        Repeat existing = repeats.putIfAbsent(fingerprint, new Repeat(category, level, t));
+        if (existing == null)
+            return true;
+        existing.count.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Write any outstanding repeat and rate limit counts and stop the reporting thread.
+     */
+    static void close() {
+        ScheduledExecutorService current = scheduler;
+        if (current == null)
+            return;
+        current.shutdownNow();
+        report();
+    }
+
+    private static String fingerprint(String category, Throwable t) {
+        StringBuilder sb = new StringBuilder(256).append(category).append('|').append(t.getClass().getName());
+        StackTraceElement[] frames = t.getStackTrace();
+        for (int i = 0; i < Math.min(DEDUP_FRAMES, frames.length); i++)
+            sb.append('|').append(frames[i].getClassName()).append('.').append(frames[i].getMethodName())
+                    .append(':').append(frames[i].getLineNumber());
+        return sb.toString();
+    }
+
+    private static void report() {
+        long now = System.currentTimeMillis();
+        for (Repeat repeat : repeats.values()) {
+            long count = repeat.count.getAndSet(0);
+            if (count > 0)
+                TestableSelenium.writeToStream(new TestableSelenium.Result("Log", new TestableLog(repeat.level,
+                        repeat.summary + " repeated " + count + " times, stack trace logged on first occurrence",
+                        now)));
+        }
+        for (Map.Entry<TestableLog.Level, Limiter> entry : limiters.entrySet()) {
+            long suppressed = entry.getValue().suppressed.getAndSet(0);
+            if (suppressed > 0)
+                TestableSelenium.writeToStream(new TestableSelenium.Result("Log", new TestableLog(entry.getKey(),
+                        suppressed + " " + entry.getKey() + " messages suppressed by the rate limit of " +
+                                RATE_LIMIT + "/s", now)));
+        }
+    }
+
+    private static void ensureScheduled() {
+        if (scheduler != null)
+            return;
+        synchronized (TestableLogFilter.class) {
+            if (scheduler != null)
+                return;
+            ScheduledExecutorService created = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "testable-log-filter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            created.scheduleAtFixedRate(TestableLogFilter::report, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+            scheduler = created;
+            TestableSelenium.registerShutdownHook();
+        }
+    }
+
+    private static TestableLog.Level parseLevel(String name) {
+        if (name == null)
+            return DEFAULT_LEVEL;
+        for (TestableLog.Level level : TestableLog.Level.values())
+            if (level.name().equalsIgnoreCase(name.trim()))
+                return level;
+        // logging through TestableSelenium here would recurse into this class while it is being initialized
+        System.out.println("Unknown testable_log_level " + name + ", logging at " + DEFAULT_LEVEL + " and above");
+        return DEFAULT_LEVEL;
+    }
+
+    /**
+     * Fixed one second window per level.
+     */
+    private static class Limiter {
+        private final AtomicLong window = new AtomicLong();
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicLong suppressed = new AtomicLong();
+
+        private boolean tryAcquire() {
+            long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+            long current = window.get();
+            if (current != now && window.compareAndSet(current, now))
+                count.set(0);
+            if (count.incrementAndGet() <= RATE_LIMIT)
+                return true;
+            suppressed.incrementAndGet();
+            return false;
+        }
+    }
+
+    private static class Repeat {
+        private final TestableLog.Level level;
+        private final String summary;
+        private final AtomicLong count = new AtomicLong();
+
+        private Repeat(String category, TestableLog.Level level, Throwable t) {
+            this.level = level;
+            this.summary = "[" + category + "] " + (t.getMessage() != null ?
+                    t.getClass().getName() + ": " + t.getMessage() : t.getClass().getName());
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package io.testable.selenium;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates reported metrics on the client into fixed time windows so that one result is written per metric per
+ * window instead of one per report. Counters are summed, histogram values are summed per key, and timings are
+ * recorded into a {@link TestableHistogram} and written as a {@link TestableTimingRollup}. Metrics are grouped by
+ * (namespace, name, resource, url) plus the key for histograms. Metered metrics are not aggregated. A metric that
+ * is not reported for a whole window is forgotten, so memory use depends on the number of distinct metrics reported
+ * per window rather than over the whole test.
+ */
+class TestableMetricAggregator {
+
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Key, Aggregate> aggregates = new ConcurrentHashMap<>();
+    private long windowStart;
+
+    TestableMetricAggregator(long windowMs) {
+        this.windowMs = Math.max(1, windowMs);
+        this.windowStart = System.currentTimeMillis();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "testable-metric-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::flush, this.windowMs, this.windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if the metric was aggregated, false if it should be written as is.
+     */
+    boolean record(TestableMetric metric) {
+        if (metric.getType() == TestableMetric.Type.Metered)
+            return false;
+        Key key = new Key(metric);
+        Aggregate aggregate;
+        // retry if the aggregate was evicted between looking it up and recording into it
+        do {
+            aggregate = aggregates.computeIfAbsent(key, k -> new Aggregate(metric));
+        } while (!aggregate.record(metric.getVal()));
+        return true;
+    }
+
+    /**
+     * Close the current window and write out everything recorded in it.
+     */
+    synchronized void flush() {
+        long start = windowStart;
+        long end = System.currentTimeMillis();
+        windowStart = end;
+        for (Map.Entry<Key, Aggregate> entry : aggregates.entrySet()) {
+            Aggregate aggregate = entry.getValue();
+            TestableSelenium.Result result = aggregate.drain(start, end);
+            if (result != null)
+                TestableSelenium.writeToStream(result);
+            else
+                aggregates.remove(entry.getKey(), aggregate);
+        }
+    }
+
+    /**
+     * Stop the window timer and write out the final partial window.
+     */
+    void close() {
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    private static class Aggregate {
+        private final TestableMetric first;
+        private final TestableHistogram histogram;
+        private long total;
+        private long reports;
+        private boolean retired;
+
+        private Aggregate(TestableMetric first) {
+            this.first = first;
+            this.histogram = first.getType() == TestableMetric.Type.Timing ? new TestableHistogram() : null;
+        }
+
+        /**
+         * @return false if the aggregate was retired and the value must be recorded into a new one.
+         */
+        private synchronized boolean record(long val) {
+            if (retired)
+                return false;
+            if (histogram != null)
+                histogram.record(val);
+            else
+                total += val;
+            reports++;
+            return true;
+        }
+
+        /**
+         * Build the result for everything recorded since the last drain and reset, or null if nothing was recorded.
+         * An aggregate with nothing recorded for a whole window is retired and takes no further values.
+         */
+        private synchronized TestableSelenium.Result drain(long start, long end) {
+            if (reports == 0) {
+                retired = true;
+                return null;
+            }
+            reports = 0;
+            if (histogram != null) {
+                TestableTimingRollup rollup = new TestableTimingRollup(first, start, end, histogram);
+                histogram.reset();
+                return new TestableSelenium.Result("TimingRollup", rollup);
+            }
+            long val = total;
+            total = 0;
+            TestableMetric metric = TestableMetric.newBuilder(first.getType())
+                    .withResource(first.getResource())
+                    .withUrl(first.getUrl())
+                    .withNamespace(first.getNamespace())
+                    .withName(first.getName())
+                    .withUnits(first.getUnits())
+                    .withKey(first.getKey())
+                    .withVal(val)
+                    .build();
+            return new TestableSelenium.Result(metric.getType().name(), metric);
+        }
+    }
+
+    private static class Key {
+        private final TestableMetric.Type type;
+        private final String namespace;
+        private final String name;
+        private final String resource;
+        private final String url;
+        private final String key;
+        private final int hash;
+
+        private Key(TestableMetric metric) {
+            this.type = metric.getType();
+            this.namespace = metric.getNamespace();
+            this.name = metric.getName();
+            this.resource = metric.getResource();
+            this.url = metric.getUrl();
+            this.key = type == TestableMetric.Type.Histogram ? metric.getKey() : null;
+            this.hash = Objects.hash(type, namespace, name, resource, url, key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return type == other.type &&
+                    Objects.equals(namespace, other.namespace) &&
+                    Objects.equals(name, other.name) &&
+                    Objects.equals(resource, other.resource) &&
+                    Objects.equals(url, other.url) &&
+                    Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,446 @@
+package io.testable.selenium;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Registry of pre-registered metrics. Create a handle once, e.g. as a static field of your test, and record into it
+ * as often as needed:
+ *
+ * <pre>
+ * {@code private static final TestableMetrics.Timer PAGE_LOAD = TestableMetrics.timer("Page Load", "ms");
+ * ...
+ * PAGE_LOAD.record(loadTime);
+ * PAGE_LOAD.record("checkout", loadTime);}
+ * </pre>
+ *
+ * Unlike {@link TestableSelenium#reportMetric(TestableMetric)}, recording does not build a metric or a result and
+ * does not allocate: values are added to counters and histograms kept per handle and written once per window (see
+ * the testable_aggregate_window_ms system property), counters as a Counter, timers as a TimingRollup, histograms as
+ * one Histogram per key and meters as the mean value of the window. Everything recorded is written when the JVM shuts
+ * down.
+ *
+ * Each handle can be split by a key (the resource for counters, timers and meters, the histogram key for histograms).
+ * To protect against a bug creating a new key for every call (e.g. a URL with a session id in it) each metric tracks
+ * at most testable_metrics_max_keys distinct keys, default 1000. Values for any further keys are folded into the
+ * "other" key and counted, see {@link Metric#getOverflowCount()}. The count is also reported per window as the
+ * "Overflowed Keys" counter with the metric name as the resource.
+ */
+public final class TestableMetrics {
+
+    public static final int MAX_KEYS = Integer.getInteger("testable_metrics_max_keys", 1000);
+    public static final String OTHER = "other";
+
+    private static final Map<String, Metric<?>> metrics = new ConcurrentHashMap<>();
+    private static final AtomicBoolean started = new AtomicBoolean();
+    private static ScheduledExecutorService scheduler;
+    private static long windowStart = System.currentTimeMillis();
+
+    private TestableMetrics() {
+    }
+
+    public static Counter counter(String name, String units) {
+        return counter(null, name, units);
+    }
+
+    public static Counter counter(String namespace, String name, String units) {
+        return register(TestableMetric.Type.Counter, namespace, name, id -> new Counter(namespace, name, units));
+    }
+
+    public static Timer timer(String name, String units) {
+        return timer(null, name, units);
+    }
+
+    public static Timer timer(String namespace, String name, String units) {
+        return register(TestableMetric.Type.Timing, namespace, name, id -> new Timer(namespace, name, units));
+    }
+
+    public static Histogram histogram(String name, String units) {
+        return histogram(null, name, units);
+    }
+
+    public static Histogram histogram(String namespace, String name, String units) {
+        return register(TestableMetric.Type.Histogram, namespace, name, id -> new Histogram(namespace, name, units));
+    }
+
+    public static Meter meter(String name, String units) {
+        return meter(null, name, units);
+    }
+
+    public static Meter meter(String namespace, String name, String units) {
+        return register(TestableMetric.Type.Metered, namespace, name, id -> new Meter(namespace, name, units));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Metric<?>> T register(TestableMetric.Type type, String namespace, String name,
+                                                    Function<String, T> factory) {
+        T metric = (T) metrics.computeIfAbsent(type + "/" + namespace + "/" + name, factory);
+        if (started.compareAndSet(false, true))
+            start();
+        return metric;
+    }
+
+    private static synchronized void start() {
+        long windowMs = Math.max(1, TestableSelenium.AGGREGATE_WINDOW_MS);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "testable-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(TestableMetrics::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+        TestableSelenium.registerShutdownHook();
+    }
+
+    /**
+     * Close the current window and write out everything recorded in it.
+     */
+    static void flush() {
+        flush(TestableSelenium::writeToStream);
+    }
+
+    /**
+     * Close the current window and pass everything recorded in it to out.
+     */
+    static synchronized void flush(Consumer<TestableSelenium.Result> out) {
+        long start = windowStart;
+        long end = System.currentTimeMillis();
+        windowStart = end;
+        List<TestableSelenium.Result> results = new ArrayList<>();
+        for (Metric<?> metric : metrics.values())
+            metric.drain(start, end, results);
+        for (TestableSelenium.Result result : results)
+            out.accept(result);
+    }
+
+    /**
+     * Stop the window timer and write out the final partial window.
+     */
+    static synchronized void close() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Base class of all metric handles: resolves the key of each recording to its cell, enforcing the key limit.
+     *
+     * @param <C> The type of cell values are recorded into
+     */
+    public abstract static class Metric<C> {
+
+        private final TestableMetric.Type type;
+        private final String namespace;
+        private final String name;
+        private final String units;
+        private final C unkeyed;
+        private final C other;
+        private final Map<String, C> cells = new ConcurrentHashMap<>();
+        private final LongAdder overflow = new LongAdder();
+        private volatile boolean warned;
+        private long overflowReported;
+
+        private Metric(TestableMetric.Type type, String namespace, String name, String units) {
+            this.type = type;
+            this.namespace = namespace;
+            this.name = name;
+            this.units = units;
+            this.unkeyed = newCell(null);
+            this.other = newCell(OTHER);
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUnits() {
+            return units;
+        }
+
+        /**
+         * @return Number of recordings folded into the "other" key because the metric already had the maximum
+         *         number of distinct keys
+         */
+        public long getOverflowCount() {
+            return overflow.sum();
+        }
+
+        C cell(String key) {
+            if (key == null)
+                return unkeyed;
+            C cell = cells.get(key);
+            if (cell != null)
+                return cell;
+            // several threads adding new keys at once can overshoot the limit by a few, that is fine
+            if (cells.size() >= MAX_KEYS) {
+                overflow.increment();
+                if (!warned) {
+                    warned = true;
+                    TestableSelenium.log(TestableLog.Level.Info, "Metric " + name + " has more than " + MAX_KEYS +
+                            " keys, values for new keys are reported under the key " + OTHER);
+                }
+                return other;
+            }
+            return cells.computeIfAbsent(key, this::newCell);
+        }
+
+        abstract C newCell(String key);
+
+        /**
+         * Add the result for everything recorded in a cell since the last drain to results and reset it.
+         */
+        abstract void drain(C cell, String key, long start, long end, List<TestableSelenium.Result> results);
+
+        TestableMetric.Builder builder(String key) {
+            TestableMetric.Builder builder = TestableMetric.newBuilder(type)
+                    .withNamespace(namespace)
+                    .withName(name)
+                    .withUnits(units);
+            return type == TestableMetric.Type.Histogram ? builder.withKey(key) : builder.withResource(key);
+        }
+
+        private void drain(long start, long end, List<TestableSelenium.Result> results) {
+            drain(unkeyed, null, start, end, results);
+            for (Map.Entry<String, C> entry : cells.entrySet())
+                drain(entry.getValue(), entry.getKey(), start, end, results);
+            drain(other, OTHER, start, end, results);
+            long overflowed = overflow.sum();
+            if (overflowed > overflowReported) {
+                TestableMetric metric = TestableMetric.newCounterBuilder()
+                        .withNamespace(namespace)
+                        .withName("Overflowed Keys")
+                        .withResource(name)
+                        .withUnits("reports")
+                        .withVal(overflowed - overflowReported)
+                        .build();
+                results.add(new TestableSelenium.Result(metric.getType().name(), metric));
+                overflowReported = overflowed;
+            }
+        }
+
+    }
+
+    /**
+     * A count that is summed per window, e.g. the number of orders placed.
+     */
+    public static final class Counter extends Metric<LongAdder> {
+
+        private Counter(String namespace, String name, String units) {
+            super(TestableMetric.Type.Counter, namespace, name, units);
+        }
+
+        public void inc() {
+            cell(null).increment();
+        }
+
+        public void inc(long val) {
+            cell(null).add(val);
+        }
+
+        public void inc(String resource) {
+            cell(resource).increment();
+        }
+
+        public void inc(String resource, long val) {
+            cell(resource).add(val);
+        }
+
+        @Override
+        LongAdder newCell(String key) {
+            return new LongAdder();
+        }
+
+        @Override
+        void drain(LongAdder cell, String key, long start, long end, List<TestableSelenium.Result> results) {
+            long val = cell.sumThenReset();
+            if (val != 0)
+                results.add(new TestableSelenium.Result("Counter", builder(key).withVal(val).build()));
+        }
+
+    }
+
+    /**
+     * Durations or other values whose distribution matters, reported per window with count, min, max, mean and
+     * percentiles.
+     */
+    public static final class Timer extends Metric<Timer.Cell> {
+
+        private Timer(String namespace, String name, String units) {
+            super(TestableMetric.Type.Timing, namespace, name, units);
+        }
+
+        public void record(long val) {
+            cell(null).record(val);
+        }
+
+        public void record(String resource, long val) {
+            cell(resource).record(val);
+        }
+
+        @Override
+        Cell newCell(String key) {
+            return new Cell(builder(key).build());
+        }
+
+        @Override
+        void drain(Cell cell, String key, long start, long end, List<TestableSelenium.Result> results) {
+            TestableTimingRollup rollup = cell.drain(start, end);
+            if (rollup != null)
+                results.add(new TestableSelenium.Result("TimingRollup", rollup));
+        }
+
+        /**
+         * Each thread records into its own histogram so that threads never wait on each other, the histograms are
+         * merged when the window is drained.
+         */
+        static final class Cell {
+            private final TestableMetric metric;
+            private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+            private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(this::newRecorder);
+            private final TestableHistogram merged = new TestableHistogram();
+
+            private Cell(TestableMetric metric) {
+                this.metric = metric;
+            }
+
+            private void record(long val) {
+                recorder.get().record(val);
+            }
+
+            private Recorder newRecorder() {
+                Recorder recorder = new Recorder(Thread.currentThread());
+                recorders.add(recorder);
+                return recorder;
+            }
+
+            private synchronized TestableTimingRollup drain(long start, long end) {
+                for (Recorder recorder : recorders) {
+                    // a thread that has exited records nothing more, so it can be forgotten once drained
+                    boolean alive = recorder.thread.isAlive();
+                    recorder.drainTo(merged);
+                    if (!alive)
+                        recorders.remove(recorder);
+                }
+                if (merged.getCount() == 0)
+                    return null;
+                TestableTimingRollup rollup = new TestableTimingRollup(metric, start, end, merged);
+                merged.reset();
+                return rollup;
+            }
+        }
+
+        /**
+         * The histogram of one thread. Its monitor is only ever contended by the drain once per window.
+         */
+        private static final class Recorder {
+            private final Thread thread;
+            private final TestableHistogram histogram = new TestableHistogram();
+
+            private Recorder(Thread thread) {
+                this.thread = thread;
+            }
+
+            private synchronized void record(long val) {
+                histogram.record(val);
+            }
+
+            private synchronized void drainTo(TestableHistogram target) {
+                target.add(histogram);
+                histogram.reset();
+            }
+        }
+
+    }
+
+    /**
+     * Counts per key, e.g. the number of responses per status code.
+     */
+    public static final class Histogram extends Metric<LongAdder> {
+
+        private Histogram(String namespace, String name, String units) {
+            super(TestableMetric.Type.Histogram, namespace, name, units);
+        }
+
+        public void record(String key) {
+            cell(key).increment();
+        }
+
+        public void record(String key, long val) {
+            cell(key).add(val);
+        }
+
+        @Override
+        LongAdder newCell(String key) {
+            return new LongAdder();
+        }
+
+        @Override
+        void drain(LongAdder cell, String key, long start, long end, List<TestableSelenium.Result> results) {
+            long val = cell.sumThenReset();
+            if (val != 0)
+                results.add(new TestableSelenium.Result("Histogram", builder(key).withVal(val).build()));
+        }
+
+    }
+
+    /**
+     * A sampled level, e.g. memory use or queue length, reported as the mean of the values recorded in the window.
+     */
+    public static final class Meter extends Metric<Meter.Cell> {
+
+        private Meter(String namespace, String name, String units) {
+            super(TestableMetric.Type.Metered, namespace, name, units);
+        }
+
+        public void record(long val) {
+            cell(null).record(val);
+        }
+
+        public void record(String resource, long val) {
+            cell(resource).record(val);
+        }
+
+        @Override
+        Cell newCell(String key) {
+            return new Cell();
+        }
+
+        @Override
+        void drain(Cell cell, String key, long start, long end, List<TestableSelenium.Result> results) {
+            long mean;
+            synchronized (cell) {
+                if (cell.count == 0)
+                    return;
+                mean = Math.round((double) cell.sum / cell.count);
+                cell.sum = 0;
+                cell.count = 0;
+            }
+            results.add(new TestableSelenium.Result("Metered", builder(key).withVal(mean).build()));
+        }
+
+        static final class Cell {
+            private long sum;
+            private long count;
+
+            private synchronized void record(long val) {
+                sum += val;
+                count++;
+            }
+        }
+
+    }
+
+}
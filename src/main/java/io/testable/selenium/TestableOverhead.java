@@ -0,0 +1,183 @@
+package io.testable.selenium;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks what the library itself costs so you can tell when the harness rather than the system under test shows up
+ * in the numbers: result serialization, bytes written, flush latency, time test threads spend reporting results,
+ * the asynchronous result queue depth, screenshot capture vs. write time and CSV load time.
+ *
+ * Enable with the <code>testable_overhead_metrics</code> system property. Totals are then available over JMX (see
+ * {@link TestableOverheadMBean}) and the same measurements are reported once per window as {@link TestableMetrics}
+ * in the reserved Testable namespace. When disabled none of this is measured at all; call sites check
+ * {@link #ENABLED} before taking any timestamps.
+ */
+class TestableOverhead implements TestableOverheadMBean {
+
+    static final boolean ENABLED = Boolean.getBoolean("testable_overhead_metrics");
+    static final String NAMESPACE = "Testable";
+    static final String OBJECT_NAME = "io.testable.selenium:type=Overhead";
+
+    private static final TestableOverhead INSTANCE = ENABLED ? new TestableOverhead() : null;
+
+    private final Stat serialization = new Stat(TestableMetrics.timer(NAMESPACE, "Result Serialization", "ns"));
+    private final Stat flush = new Stat(TestableMetrics.timer(NAMESPACE, "Result Flush", "us"));
+    private final Stat report = new Stat(TestableMetrics.timer(NAMESPACE, "Result Report", "ns"));
+    private final Stat screenshotCapture = new Stat(TestableMetrics.timer(NAMESPACE, "Screenshot Capture", "ms"));
+    private final Stat screenshotWrite = new Stat(TestableMetrics.timer(NAMESPACE, "Screenshot Write", "ms"));
+    private final Stat csvLoad = new Stat(TestableMetrics.timer(NAMESPACE, "CSV Load", "ms"));
+    private final LongAdder bytes = new LongAdder();
+    private final TestableMetrics.Counter bytesMetric =
+            TestableMetrics.counter(NAMESPACE, "Result Bytes Written", "bytes");
+    private final TestableMetrics.Meter queueDepthMetric =
+            TestableMetrics.meter(NAMESPACE, "Result Queue Depth", "results");
+
+    private TestableOverhead() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(this, TestableOverheadMBean.class), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.out.println("Issue registering Testable overhead MBean");
+            e.printStackTrace();
+        }
+    }
+
+    static void serialized(long nanos) {
+        INSTANCE.serialization.record(nanos, nanos);
+    }
+
+    static void flushed(long nanos, long bytesWritten) {
+        INSTANCE.flush.record(nanos, TimeUnit.NANOSECONDS.toMicros(nanos));
+        INSTANCE.bytes.add(bytesWritten);
+        INSTANCE.bytesMetric.inc(bytesWritten);
+    }
+
+    static void reported(long nanos) {
+        INSTANCE.report.record(nanos, nanos);
+    }
+
+    /**
+     * Sample the number of results waiting to be written, called by the asynchronous writer once per batch.
+     */
+    static void queueDepth(int depth) {
+        INSTANCE.queueDepthMetric.record(depth);
+    }
+
+    static void screenshotCaptured(long nanos) {
+        INSTANCE.screenshotCapture.record(nanos, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    static void screenshotWritten(long nanos) {
+        INSTANCE.screenshotWrite.record(nanos, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    static void csvLoaded(String path, long nanos) {
+        String file = Paths.get(path).getFileName().toString();
+        INSTANCE.csvLoad.record(file, nanos, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    @Override
+    public long getResultsSerialized() {
+        return serialization.count.sum();
+    }
+
+    @Override
+    public long getSerializationTimeNanos() {
+        return serialization.nanos.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getFlushes() {
+        return flush.count.sum();
+    }
+
+    @Override
+    public long getFlushTimeNanos() {
+        return flush.nanos.sum();
+    }
+
+    @Override
+    public long getResultsReported() {
+        return report.count.sum();
+    }
+
+    @Override
+    public long getReportTimeNanos() {
+        return report.nanos.sum();
+    }
+
+    @Override
+    public int getResultQueueDepth() {
+        return TestableSelenium.getResultQueueDepth();
+    }
+
+    @Override
+    public long getDroppedResults() {
+        return TestableSelenium.getDroppedResultCount();
+    }
+
+    @Override
+    public long getScreenshotsCaptured() {
+        return screenshotCapture.count.sum();
+    }
+
+    @Override
+    public long getScreenshotCaptureTimeNanos() {
+        return screenshotCapture.nanos.sum();
+    }
+
+    @Override
+    public long getScreenshotsWritten() {
+        return screenshotWrite.count.sum();
+    }
+
+    @Override
+    public long getScreenshotWriteTimeNanos() {
+        return screenshotWrite.nanos.sum();
+    }
+
+    @Override
+    public long getCsvLoads() {
+        return csvLoad.count.sum();
+    }
+
+    @Override
+    public long getCsvLoadTimeNanos() {
+        return csvLoad.nanos.sum();
+    }
+
+    /**
+     * Running totals for JMX plus the timer reported per window.
+     */
+    private static class Stat {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final TestableMetrics.Timer timer;
+
+        private Stat(TestableMetrics.Timer timer) {
+            this.timer = timer;
+        }
+
+        private void record(long nanos, long val) {
+            record(null, nanos, val);
+        }
+
+        private void record(String resource, long nanos, long val) {
+            count.increment();
+            this.nanos.add(nanos);
+            timer.record(resource, val);
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package io.testable.selenium;
+
+/**
+ * Time and bytes spent by the library itself since the JVM started, registered with the platform MBean server as
+ * <code>io.testable.selenium:type=Overhead</code> when the <code>testable_overhead_metrics</code> system property is
+ * true. Times are in nanoseconds.
+ */
+public interface TestableOverheadMBean {
+
+    /**
+     * @return Number of results serialized into the result file
+     */
+    long getResultsSerialized();
+
+    long getSerializationTimeNanos();
+
+    /**
+     * @return Bytes flushed to the result file, before compression of rolled segments
+     */
+    long getBytesWritten();
+
+    long getFlushes();
+
+    long getFlushTimeNanos();
+
+    /**
+     * @return Number of results reported, whether written to a file, queued for the background writer, or printed to
+     *         the console
+     */
+    long getResultsReported();
+
+    /**
+     * @return Time test threads spent reporting results, including waiting for the result file lock or for room in
+     *         the asynchronous result queue
+     */
+    long getReportTimeNanos();
+
+    /**
+     * @return Results waiting in the asynchronous result queue right now, 0 when results are written synchronously
+     */
+    int getResultQueueDepth();
+
+    long getDroppedResults();
+
+    long getScreenshotsCaptured();
+
+    /**
+     * @return Time spent waiting for the browser to return screenshots
+     */
+    long getScreenshotCaptureTimeNanos();
+
+    long getScreenshotsWritten();
+
+    /**
+     * @return Time spent deduplicating, re-encoding and writing screenshots to disk
+     */
+    long getScreenshotWriteTimeNanos();
+
+    long getCsvLoads();
+
+    long getCsvLoadTimeNanos();
+
+}
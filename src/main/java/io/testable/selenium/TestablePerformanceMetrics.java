@@ -0,0 +1,186 @@
+package io.testable.selenium;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.support.events.AbstractWebDriverEventListener;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects browser performance metrics using the bundled rum-speedindex.js script and reports them as custom
+ * metrics. The script is loaded from the classpath once per JVM and run in a single executeScript() call. Per
+ * resource timings are collected incrementally with the bundled resource-timing.js script.
+ */
+class TestablePerformanceMetrics {
+
+    private static final String[][] TIMINGS = {
+            { "speedIndex", "Speed Index" },
+            { "firstPaint", "First Paint" },
+            { "firstContentfulPaint", "First Contentful Paint" },
+            { "firstByte", "Time To First Byte" },
+            { "firstInteractive", "First Interactive" },
+            { "pageLoadMs", "Page Load Time" }
+    };
+    private static final String[][] COUNTERS = {
+            { "pageWeight", "Page Weight", "bytes" },
+            { "pageRequests", "Page Requests", "requests" }
+    };
+    private static final String[][] GAUGES = {
+            { "usedJSHeapSize", "JS Heap Used" },
+            { "totalJSHeapSize", "JS Heap Total" },
+            { "jsHeapSizeLimit", "JS Heap Limit" }
+    };
+
+    private static final String[] RESOURCE_FIELDS = {
+            "name", "type", "dns", "connect", "ttfb", "download", "duration", "transferSize", "encodedBodySize"
+    };
+    private static final String[][] RESOURCE_TIMINGS = {
+            { "dns", "Resource DNS Time" },
+            { "connect", "Resource Connect Time" },
+            { "ttfb", "Resource Time To First Byte" },
+            { "download", "Resource Download Time" },
+            { "duration", "Resource Duration" }
+    };
+
+    private static volatile String script;
+    private static volatile String resourceScript;
+
+    static Map<String, Object> collect(WebDriver driver) {
+        String loaded = script;
+        if (loaded == null)
+            script = loaded = load("/rum-speedindex.js");
+        Object answer = ((JavascriptExecutor) driver).executeScript(loaded);
+        if (!(answer instanceof Map))
+            return Collections.emptyMap();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> metrics = (Map<String, Object>) answer;
+        Object url = metrics.get("url");
+        String pageUrl = url != null ? url.toString() : null;
+        for (String[] timing : TIMINGS)
+            report(TestableMetric.newTimingBuilder(), metrics.get(timing[0]), timing[1], "ms", pageUrl);
+        for (String[] counter : COUNTERS)
+            report(TestableMetric.newCounterBuilder(), metrics.get(counter[0]), counter[1], counter[2], pageUrl);
+        for (String[] gauge : GAUGES)
+            report(TestableMetric.newMeteredBuilder(), metrics.get(gauge[0]), gauge[1], "bytes", pageUrl);
+        return metrics;
+    }
+
+    /**
+     * Report the resources loaded since the previous call for the same page, each as timings and a transfer size
+     * with the resource field set to "[host] [initiator type]" (e.g. "cdn.example.com script").
+     */
+    static List<Map<String, Object>> collectResources(WebDriver driver) {
+        String loaded = resourceScript;
+        if (loaded == null)
+            resourceScript = loaded = load("/resource-timing.js");
+        Object answer = ((JavascriptExecutor) driver).executeScript(loaded);
+        if (!(answer instanceof Map))
+            return Collections.emptyList();
+        Map<?, ?> timings = (Map<?, ?>) answer;
+        Object url = timings.get("url");
+        String pageUrl = url != null ? url.toString() : null;
+        Object entries = timings.get("entries");
+        if (!(entries instanceof List))
+            return Collections.emptyList();
+        List<Map<String, Object>> resources = new ArrayList<>(((List<?>) entries).size());
+        for (Object entry : (List<?>) entries) {
+            if (!(entry instanceof List) || ((List<?>) entry).size() < RESOURCE_FIELDS.length)
+                continue;
+            List<?> values = (List<?>) entry;
+            Map<String, Object> resource = new LinkedHashMap<>();
+            for (int i = 0; i < RESOURCE_FIELDS.length; i++)
+                resource.put(RESOURCE_FIELDS[i], values.get(i));
+            String name = String.valueOf(resource.get("name"));
+            resource.put("host", host(name));
+            String group = resource.get("host") + " " + resource.get("type");
+            for (String[] timing : RESOURCE_TIMINGS)
+                report(TestableMetric.newTimingBuilder(), resource.get(timing[0]), timing[1], "ms", pageUrl, group);
+            report(TestableMetric.newCounterBuilder(), resource.get("transferSize"), "Resource Transfer Size", "bytes",
+                    pageUrl, group);
+            report(TestableMetric.newCounterBuilder(), 1, "Resource Requests", "requests", pageUrl, group);
+            resources.add(resource);
+        }
+        return resources;
+    }
+
+    private static String host(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return host != null ? host : "unknown";
+        } catch (URISyntaxException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Collects performance metrics after every navigation made through an
+     * {@link org.openqa.selenium.support.events.EventFiringWebDriver}.
+     */
+    static class NavigationListener extends AbstractWebDriverEventListener {
+
+        @Override
+        public void afterNavigateTo(String url, WebDriver driver) {
+            collectQuietly(driver);
+        }
+
+        @Override
+        public void afterNavigateBack(WebDriver driver) {
+            collectQuietly(driver);
+        }
+
+        @Override
+        public void afterNavigateForward(WebDriver driver) {
+            collectQuietly(driver);
+        }
+
+        @Override
+        public void afterNavigateRefresh(WebDriver driver) {
+            collectQuietly(driver);
+        }
+
+        private void collectQuietly(WebDriver driver) {
+            try {
+                collect(driver);
+            } catch (WebDriverException e) {
+                TestableSelenium.log(TestableLog.Level.Debug, e);
+            }
+        }
+    }
+
+    private static void report(TestableMetric.Builder builder, Object value, String name, String units, String url) {
+        report(builder, value, name, units, url, null);
+    }
+
+    private static void report(TestableMetric.Builder builder, Object value, String name, String units, String url,
+                               String resource) {
+        // values the browser could not measure are either missing or negative (e.g. load event not fired yet)
+        if (!(value instanceof Number) || ((Number) value).doubleValue() < 0)
+            return;
+        TestableSelenium.reportMetric(builder
+                .withName(name)
+                .withUnits(units)
+                .withUrl(url)
+                .withResource(resource)
+                .withVal(Math.round(((Number) value).doubleValue()))
+                .build());
+    }
+
+    private static String load(String resource) {
+        try {
+            return Resources.toString(Resources.getResource(TestablePerformanceMetrics.class, resource), Charsets.UTF_8);
+        } catch (IOException e) {
+            throw new WebDriverException("Unable to load " + resource, e);
+        }
+    }
+
+}
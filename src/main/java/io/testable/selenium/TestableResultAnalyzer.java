@@ -0,0 +1,334 @@
+package io.testable.selenium;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarizes one or more result files into a latency report without the Testable platform, e.g. after running a
+ * test locally or in CI. Files are streamed in a single pass so memory use does not depend on their size: each step
+ * and metric is tracked in a {@link TestableHistogram} and only steps that are still open are remembered
+ * individually.
+ *
+ * Accepts JSON lines, Smile, gzip compressed segments, the manifest of a rolling result file, and console output
+ * captured when no result file was configured ([Type] {...} per line).
+ *
+ * <pre>
+ * java -cp testable-selenium-java-all.jar io.testable.selenium.TestableResultAnalyzer [--csv] results.json...
+ * </pre>
+ *
+ * For each step the report shows the number of runs, failures, throughput and duration percentiles. For each
+ * Timing metric it shows the count and value percentiles, and for each Counter metric the total. Percentiles of
+ * metrics reported as TimingRollup results are approximated from the percentiles of each rollup.
+ */
+public class TestableResultAnalyzer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final double[] PERCENTILES = { 50, 90, 95, 99 };
+
+    private final Map<String, Stats> steps = new TreeMap<>();
+    private final Map<String, Stats> timings = new TreeMap<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+    private final Map<String, String> openSteps = new HashMap<>();
+    private final Map<TestableLog.Level, Long> logs = new EnumMap<>(TestableLog.Level.class);
+    private long iterations;
+    private long failedIterations;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    public static void main(String[] args) throws IOException {
+        boolean csv = false;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if ("--csv".equals(arg))
+                csv = true;
+            else
+                files.add(arg);
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: TestableResultAnalyzer [--csv] <result file>...");
+            System.exit(1);
+        }
+        TestableResultAnalyzer analyzer = new TestableResultAnalyzer();
+        for (String file : files) {
+            for (InputStream segment : TestableResultFile.open(Paths.get(file))) {
+                try (InputStream in = segment) {
+                    analyzer.read(in);
+                }
+            }
+        }
+        if (csv)
+            analyzer.printCsv(System.out);
+        else
+            analyzer.print(System.out);
+    }
+
+    /**
+     * Add all results from a stream in any of the supported formats.
+     */
+    public void read(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 65536);
+        buffered.mark(1);
+        int first = buffered.read();
+        buffered.reset();
+        if (first == '[') {
+            // console output, one "[Type] {json}" per line
+            BufferedReader reader = new BufferedReader(new InputStreamReader(buffered, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int start = line.indexOf('{');
+                if (start >= 0)
+                    add(MAPPER.readTree(line.substring(start)));
+            }
+            return;
+        }
+        try (JsonParser parser = TestableResultSerializer.openParser(buffered)) {
+            // see TestableResultConverter, a Smile file appended to by several runs contains several documents
+            while (!parser.isClosed()) {
+                if (parser.nextToken() == JsonToken.START_OBJECT)
+                    add(MAPPER.readTree(parser));
+            }
+        }
+    }
+
+    private void add(JsonNode result) {
+        String type = result.path("type").asText();
+        JsonNode data = result.path("data");
+        switch (type) {
+            case "StartSuite":
+                iterations++;
+                timestamp(data.path("started").asLong());
+                break;
+            case "FinishSuite":
+                if (data.path("hasError").asBoolean())
+                    failedIterations++;
+                timestamp(data.path("finished").asLong());
+                break;
+            case "StartSuiteTest":
+                openSteps.put(data.path("uuid").asText(), data.path("name").asText());
+                timestamp(data.path("started").asLong());
+                break;
+            case "FinishSuiteTest":
+                openSteps.remove(data.path("uuid").asText());
+                Stats step = steps.computeIfAbsent(data.path("name").asText(), name -> new Stats());
+                String state = data.path("state").asText();
+                if ("skipped".equals(state)) {
+                    step.skipped++;
+                } else {
+                    step.record(Math.max(0, data.path("duration").asLong()));
+                    if ("failed".equals(state))
+                        step.errors++;
+                }
+                timestamp(data.path("finished").asLong());
+                break;
+            case "Timing":
+                timings.computeIfAbsent(metricName(data), name -> new Stats())
+                        .record(Math.max(0, data.path("val").asLong()));
+                break;
+            case "TimingRollup":
+                addRollup(timings.computeIfAbsent(metricName(data), name -> new Stats()), data);
+                timestamp(data.path("windowStart").asLong());
+                timestamp(data.path("windowEnd").asLong());
+                break;
+            case "Counter":
+                counters.merge(metricName(data), data.path("val").asLong(), Long::sum);
+                break;
+            case "Log":
+                for (TestableLog.Level level : TestableLog.Level.values())
+                    if (level.name().equals(data.path("level").asText()))
+                        logs.merge(level, 1L, Long::sum);
+                timestamp(data.path("timestamp").asLong());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * A rollup carries the exact count, min, max and mean of its window, which are added as is. Its distribution is
+     * only known through a few percentiles, so for the percentile columns it is approximated by spreading the count
+     * over them: half at p50, 40% at p90, 9% at p99 and the rest at the max.
+     */
+    private static void addRollup(Stats stats, JsonNode data) {
+        long count = data.path("count").asLong();
+        if (count <= 0)
+            return;
+        long min = Math.max(0, data.path("min").asLong());
+        long max = Math.max(0, data.path("max").asLong());
+        stats.add(count, count * data.path("mean").asDouble(), min, max);
+        TestableHistogram histogram = stats.histogram;
+        long atP90 = count * 40 / 100;
+        long atP99 = count * 9 / 100;
+        long atMax = Math.max(count > 1 ? 1 : 0, count / 100);
+        long atP50 = count - atP90 - atP99 - atMax;
+        histogram.record(Math.max(0, data.path("p50").asLong()), atP50);
+        histogram.record(Math.max(0, data.path("p90").asLong()), atP90);
+        histogram.record(Math.max(0, data.path("p99").asLong()), atP99);
+        histogram.record(max, atMax);
+    }
+
+    private void timestamp(long timestamp) {
+        if (timestamp <= 0)
+            return;
+        firstTimestamp = Math.min(firstTimestamp, timestamp);
+        lastTimestamp = Math.max(lastTimestamp, timestamp);
+    }
+
+    private static String metricName(JsonNode data) {
+        StringBuilder sb = new StringBuilder();
+        if (!data.path("namespace").isNull() && !data.path("namespace").asText().isEmpty())
+            sb.append(data.path("namespace").asText()).append('/');
+        sb.append(data.path("name").asText());
+        if (!data.path("resource").isNull() && !data.path("resource").asText().isEmpty())
+            sb.append(" [").append(data.path("resource").asText()).append(']');
+        if (!data.path("units").isNull() && !data.path("units").asText().isEmpty())
+            sb.append(" (").append(data.path("units").asText()).append(')');
+        return sb.toString();
+    }
+
+    private double durationSeconds() {
+        return lastTimestamp > firstTimestamp ? (lastTimestamp - firstTimestamp) / 1000.0 : 0;
+    }
+
+    /**
+     * Print a human readable report.
+     */
+    public void print(PrintStream out) {
+        double seconds = durationSeconds();
+        out.printf(Locale.ROOT, "Duration: %.1fs, iterations: %d, failed iterations: %d%n",
+                seconds, iterations, failedIterations);
+        if (!logs.isEmpty())
+            out.println("Logs: " + logs);
+        if (!openSteps.isEmpty())
+            out.println("Steps started but never finished: " + openSteps.size());
+        String header = "%-50s %9s %7s %8s %9s %9s %9s %9s %9s %9s %9s%n";
+        String row = "%-50s %9d %7d %7.2f%% %9.2f %9d %9.1f %9d %9d %9d %9d%n";
+        String timingRow = "%-50s %9d %7s %8s %9.2f %9d %9.1f %9d %9d %9d %9d%n";
+        if (!steps.isEmpty()) {
+            out.println();
+            out.printf(Locale.ROOT, header, "Step", "Count", "Errors", "Error %", "Per sec", "Min", "Mean",
+                    "p50", "p90", "p99", "Max");
+            for (Map.Entry<String, Stats> entry : steps.entrySet())
+                printRow(out, row, entry.getKey(), entry.getValue(), seconds, true);
+        }
+        if (!timings.isEmpty()) {
+            out.println();
+            out.printf(Locale.ROOT, header, "Timing", "Count", "", "", "Per sec", "Min", "Mean",
+                    "p50", "p90", "p99", "Max");
+            for (Map.Entry<String, Stats> entry : timings.entrySet())
+                printRow(out, timingRow, entry.getKey(), entry.getValue(), seconds, false);
+        }
+        if (!counters.isEmpty()) {
+            out.println();
+            out.printf(Locale.ROOT, "%-50s %15s %9s%n", "Counter", "Total", "Per sec");
+            for (Map.Entry<String, Long> entry : counters.entrySet())
+                out.printf(Locale.ROOT, "%-50s %15d %9.2f%n", entry.getKey(), entry.getValue(),
+                        seconds > 0 ? entry.getValue() / seconds : 0);
+        }
+    }
+
+    private static void printRow(PrintStream out, String format, String name, Stats stats, double seconds,
+                                 boolean step) {
+        TestableHistogram histogram = stats.histogram;
+        long count = stats.count;
+        out.printf(Locale.ROOT, format, name, count, step ? stats.errors : "",
+                step ? count > 0 ? stats.errors * 100.0 / count : 0 : "", seconds > 0 ? count / seconds : 0,
+                stats.getMin(), stats.getMean(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), stats.getMax());
+    }
+
+    /**
+     * Print the report as CSV, one row per step, timing and counter.
+     */
+    public void printCsv(PrintStream out) {
+        double seconds = durationSeconds();
+        StringBuilder header = new StringBuilder("kind,name,count,errors,skipped,per_sec,min,mean");
+        for (double percentile : PERCENTILES)
+            header.append(",p").append((int) percentile);
+        out.println(header.append(",max,total"));
+        for (Map.Entry<String, Stats> entry : steps.entrySet())
+            printCsvRow(out, "step", entry.getKey(), entry.getValue(), seconds);
+        for (Map.Entry<String, Stats> entry : timings.entrySet())
+            printCsvRow(out, "timing", entry.getKey(), entry.getValue(), seconds);
+        for (Map.Entry<String, Long> entry : counters.entrySet())
+            out.println("counter," + csv(entry.getKey()) + ",,,," +
+                    String.format(Locale.ROOT, "%.3f", seconds > 0 ? entry.getValue() / seconds : 0) +
+                    ",,,,,,,," + entry.getValue());
+    }
+
+    private static void printCsvRow(PrintStream out, String kind, String name, Stats stats, double seconds) {
+        TestableHistogram histogram = stats.histogram;
+        long count = stats.count;
+        StringBuilder sb = new StringBuilder()
+                .append(kind).append(',').append(csv(name)).append(',')
+                .append(count).append(',').append(stats.errors).append(',').append(stats.skipped).append(',')
+                .append(String.format(Locale.ROOT, "%.3f", seconds > 0 ? count / seconds : 0)).append(',')
+                .append(stats.getMin()).append(',')
+                .append(String.format(Locale.ROOT, "%.3f", stats.getMean()));
+        for (double percentile : PERCENTILES)
+            sb.append(',').append(histogram.getValueAtPercentile(percentile));
+        out.println(sb.append(',').append(stats.getMax()).append(','));
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Count, mean, min and max are exact. The histogram is only used for the percentiles.
+     */
+    private static class Stats {
+        private final TestableHistogram histogram = new TestableHistogram();
+        private long count;
+        private double sum;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private long errors;
+        private long skipped;
+
+        void record(long value) {
+            histogram.record(value);
+            add(1, value, value, value);
+        }
+
+        void add(long count, double sum, long min, long max) {
+            this.count += count;
+            this.sum += sum;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+        }
+
+        long getMin() {
+            return count > 0 ? min : 0;
+        }
+
+        long getMax() {
+            return count > 0 ? max : 0;
+        }
+
+        double getMean() {
+            return count > 0 ? sum / count : 0;
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package io.testable.selenium;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+
+/**
+ * Converts result files written with <code>-Dtestable_result_format=smile</code> back into the JSON lines format,
+ * one result per line, streaming so that files of any size can be converted in constant memory. JSON lines input is
+ * passed through unchanged. Arguments can also be gzip compressed segments or the manifest of a rolling result file,
+ * in which case all of its segments are converted in order.
+ *
+ * <pre>
+ * java -cp testable-selenium-java-all.jar io.testable.selenium.TestableResultConverter results.smile &gt; results.json
+ * </pre>
+ */
+public class TestableResultConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TestableResultConverter <result file>...");
+            System.exit(1);
+        }
+        for (String file : args) {
+            for (InputStream segment : TestableResultFile.open(Paths.get(file))) {
+                try (InputStream in = segment) {
+                    convert(in, System.out);
+                }
+            }
+        }
+        System.out.flush();
+    }
+
+    /**
+     * Convert a stream of results in either format to JSON lines.
+     *
+     * @param in Results to read
+     * @param out Where to write the JSON lines. Not closed.
+     * @throws IOException If reading or writing fails
+     */
+    public static void convert(InputStream in, OutputStream out) throws IOException {
+        String lineSeparator = System.lineSeparator();
+        try (JsonParser parser = TestableResultSerializer.openParser(in);
+             JsonGenerator generator = new JsonFactory().setRootValueSeparator(null)
+                     .createGenerator(out, JsonEncoding.UTF8)
+                     .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            // each run appending to a Smile file starts a new document, which the parser reports as a null token
+            // between documents; the parser only closes once the input is exhausted
+            while (!parser.isClosed()) {
+                if (parser.nextToken() != JsonToken.START_OBJECT)
+                    continue;
+                generator.copyCurrentStructure(parser);
+                generator.writeRaw(lineSeparator);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+package io.testable.selenium;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The Testable result file. Either a single file that results are appended to, or when rolling is enabled, a series
+ * of segments named [file].00001, [file].00002, ... Rolling happens once a segment reaches a size or age limit and
+ * only between results. Sealed segments are gzip compressed in the background to [segment].gz.
+ *
+ * A manifest, [file].manifest, lists the segments in order and is atomically replaced whenever a segment is opened,
+ * sealed or compressed. The open segment is always a plain file so that a crash loses at most the unflushed
+ * results. Segments a crashed run left uncompressed are compressed on the next start.
+ *
+ * Not thread safe, callers synchronize on the instance.
+ */
+class TestableResultFile implements Closeable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Path path;
+    private final boolean binary;
+    private final long rollBytes;
+    private final long rollIntervalNanos;
+    private final boolean compress;
+    private final boolean rolling;
+    private final Path manifest;
+    private final List<Segment> segments = new ArrayList<>();
+    private ExecutorService compressor;
+    private CountingOutputStream out;
+    private TestableResultSerializer serializer;
+    private Segment current;
+    private long flushedBytes;
+    private volatile boolean closed = false;
+
+    /**
+     * @param file Path of the result file
+     * @param binary True to write Smile, false for JSON lines
+     * @param rollBytes Start a new segment once the current one reaches this size, 0 for no limit
+     * @param rollIntervalMs Start a new segment once the current one is this old, 0 for no limit
+     * @param compress Whether to gzip sealed segments
+     */
+    TestableResultFile(String file, boolean binary, long rollBytes, long rollIntervalMs, boolean compress)
+            throws IOException {
+        this.path = Paths.get(file).toAbsolutePath();
+        this.binary = binary;
+        this.rollBytes = rollBytes;
+        this.rollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(rollIntervalMs);
+        this.compress = compress;
+        this.rolling = rollBytes > 0 || rollIntervalMs > 0;
+        this.manifest = manifestOf(path);
+        if (rolling) {
+            recover();
+            open();
+        } else {
+            out = new CountingOutputStream(new FileOutputStream(file, true));
+            serializer = new TestableResultSerializer(out, binary);
+        }
+    }
+
+    boolean isRolling() {
+        return rolling;
+    }
+
+    void write(TestableSelenium.Result result) throws IOException {
+        // results reported by other threads while the JVM shuts down are discarded
+        if (closed)
+            return;
+        if (!TestableOverhead.ENABLED) {
+            serializer.write(result);
+            return;
+        }
+        long started = System.nanoTime();
+        serializer.write(result);
+        TestableOverhead.serialized(System.nanoTime() - started);
+    }
+
+    /**
+     * Flush buffered results to disk and start a new segment if the current one is full.
+     */
+    void flush() throws IOException {
+        if (closed)
+            return;
+        long started = TestableOverhead.ENABLED ? System.nanoTime() : 0;
+        serializer.flush();
+        if (TestableOverhead.ENABLED) {
+            TestableOverhead.flushed(System.nanoTime() - started, out.getCount() - flushedBytes);
+            flushedBytes = out.getCount();
+        }
+        if (rolling && ((rollBytes > 0 && out.getCount() >= rollBytes) ||
+                (rollIntervalNanos > 0 && System.nanoTime() - current.startedNanos >= rollIntervalNanos))) {
+            seal();
+            open();
+        }
+    }
+
+    /**
+     * Flush and close the file. When rolling, the last segment is sealed and this blocks until all segments are
+     * compressed and the manifest is marked complete.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        serializer.flush();
+        if (!rolling) {
+            out.close();
+            closed = true;
+            return;
+        }
+        seal();
+        closed = true;
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                compressor.awaitTermination(5, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writeManifest();
+    }
+
+    /**
+     * @return The segments listed in a manifest, in the order they were written
+     */
+    static List<Path> segments(Path manifest) throws IOException {
+        JsonNode root = MAPPER.readTree(manifest.toFile());
+        Path dir = manifest.toAbsolutePath().getParent();
+        List<Path> files = new ArrayList<>();
+        for (JsonNode segment : root.path("segments")) {
+            Path compressed = dir.resolve(segment.path("file").asText() + ".gz");
+            files.add(segment.path("compressed").asBoolean() || Files.exists(compressed) ?
+                    compressed : dir.resolve(segment.path("file").asText()));
+        }
+        return files;
+    }
+
+    /**
+     * Open a result file, a compressed segment or all segments listed in a manifest for reading. Segments are opened
+     * one at a time as the returned streams are iterated, so a manifest with thousands of segments never holds more
+     * than one open file as long as each stream is closed before moving on to the next. Each segment is returned as
+     * its own stream since Smile segments are separate documents that can not simply be concatenated.
+     *
+     * @throws UncheckedIOException From the iterator if a segment can not be opened
+     */
+    static Iterable<InputStream> open(Path file) throws IOException {
+        List<Path> files = file.getFileName().toString().endsWith(".manifest") ?
+                segments(file) : Collections.singletonList(file);
+        return () -> new Iterator<InputStream>() {
+            private final Iterator<Path> remaining = files.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return remaining.hasNext();
+            }
+
+            @Override
+            public InputStream next() {
+                Path segment = remaining.next();
+                try {
+                    InputStream in = Files.newInputStream(segment);
+                    if (!segment.getFileName().toString().endsWith(".gz"))
+                        return in;
+                    try {
+                        return new GZIPInputStream(in, 65536);
+                    } catch (IOException e) {
+                        in.close();
+                        throw e;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private void open() throws IOException {
+        int number = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).number + 1;
+        current = new Segment(number, String.format("%s.%05d", path.getFileName(), number));
+        out = new CountingOutputStream(new FileOutputStream(resolve(current.file).toFile(), true));
+        flushedBytes = 0;
+        synchronized (segments) {
+            segments.add(current);
+        }
+        writeManifest();
+        serializer = new TestableResultSerializer(out, binary);
+    }
+
+    private void seal() throws IOException {
+        out.close();
+        Segment sealed = current;
+        synchronized (segments) {
+            sealed.sealed = true;
+            sealed.bytes = out.getCount();
+        }
+        writeManifest();
+        if (compress)
+            compressor().execute(() -> compress(sealed));
+    }
+
+    private void compress(Segment segment) {
+        Path source = resolve(segment.file);
+        Path target = resolve(segment.file + ".gz");
+        Path temp = resolve(segment.file + ".gz.tmp");
+        try {
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream gzip = new GZIPOutputStream(Files.newOutputStream(temp), 65536)) {
+                byte[] buffer = new byte[65536];
+                int read;
+                while ((read = in.read(buffer)) >= 0)
+                    gzip.write(buffer, 0, read);
+            }
+            move(temp, target);
+            synchronized (segments) {
+                segment.compressed = true;
+            }
+            writeManifest();
+            Files.delete(source);
+        } catch (IOException e) {
+            System.out.println("Issue compressing Testable result file segment " + source);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Pick up the segments of a previous run from its manifest so numbering continues, and compress any segment
+     * that a crash left uncompressed.
+     */
+    private void recover() throws IOException {
+        if (!Files.exists(manifest))
+            return;
+        for (JsonNode node : MAPPER.readTree(manifest.toFile()).path("segments")) {
+            Segment segment = new Segment(node.path("number").asInt(), node.path("file").asText());
+            segment.bytes = node.path("bytes").asLong();
+            segment.sealed = true;
+            segment.compressed = node.path("compressed").asBoolean();
+            boolean raw = Files.exists(resolve(segment.file));
+            if (!segment.compressed && !raw) {
+                if (!Files.exists(resolve(segment.file + ".gz")))
+                    continue;
+                // crashed after compressing but before updating the manifest
+                segment.compressed = true;
+            }
+            synchronized (segments) {
+                segments.add(segment);
+            }
+            if (compress && !segment.compressed && raw) {
+                segment.bytes = Files.size(resolve(segment.file));
+                compressor().execute(() -> compress(segment));
+            }
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        synchronized (segments) {
+            ObjectNode root = MAPPER.createObjectNode();
+            root.put("file", path.getFileName().toString());
+            root.put("format", binary ? "smile" : "json");
+            root.put("complete", closed);
+            ArrayNode list = root.putArray("segments");
+            for (Segment segment : segments) {
+                ObjectNode node = list.addObject();
+                node.put("number", segment.number);
+                node.put("file", segment.file);
+                node.put("sealed", segment.sealed);
+                node.put("compressed", segment.compressed);
+                node.put("bytes", segment.bytes);
+            }
+            Path temp = resolve(manifest.getFileName() + ".tmp");
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(temp.toFile(), root);
+            move(temp, manifest);
+        }
+    }
+
+    private ExecutorService compressor() {
+        if (compressor == null) {
+            compressor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "testable-result-compressor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return compressor;
+    }
+
+    private Path resolve(String file) {
+        return path.resolveSibling(file);
+    }
+
+    private static Path manifestOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".manifest");
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class Segment {
+        private final int number;
+        private final String file;
+        private final long startedNanos = System.nanoTime();
+        private boolean sealed;
+        private boolean compressed;
+        private long bytes;
+
+        private Segment(int number, String file) {
+            this.number = number;
+            this.file = file;
+        }
+    }
+
+}
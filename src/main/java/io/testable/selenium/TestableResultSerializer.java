@@ -0,0 +1,228 @@
+package io.testable.selenium;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * Serializes {@link TestableSelenium.Result} events as JSON lines directly onto a writer through a single reused
+ * {@link JsonGenerator}. The known event types are written field by field so that no intermediate strings or
+ * reflective bean lookups are needed per event; anything else falls back to a shared {@link ObjectMapper}. The output
+ * is identical to what {@link ObjectMapper#writeValueAsString(Object)} produces for the same objects.
+ *
+ * Results can alternatively be written in the binary Smile format, which back-references repeated field names and
+ * short string values (suite names, UUIDs, metric names) instead of repeating them. Use
+ * {@link TestableResultConverter} to turn such a file back into JSON lines.
+ *
+ * Instances are not thread safe.
+ */
+class TestableResultSerializer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = new JsonFactory(MAPPER).setRootValueSeparator(null);
+    private static final SmileFactory SMILE_FACTORY;
+    static {
+        SmileFactory smile = new SmileFactory(MAPPER);
+        smile.enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES);
+        SMILE_FACTORY = smile;
+    }
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private static final SerializableString TYPE = new SerializedString("type");
+    private static final SerializableString DATA = new SerializedString("data");
+    private static final SerializableString RESOURCE = new SerializedString("resource");
+    private static final SerializableString URL = new SerializedString("url");
+    private static final SerializableString NAMESPACE = new SerializedString("namespace");
+    private static final SerializableString NAME = new SerializedString("name");
+    private static final SerializableString UNITS = new SerializedString("units");
+    private static final SerializableString KEY = new SerializedString("key");
+    private static final SerializableString VAL = new SerializedString("val");
+    private static final SerializableString LEVEL = new SerializedString("level");
+    private static final SerializableString MESSAGE = new SerializedString("message");
+    private static final SerializableString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializableString UUID = new SerializedString("uuid");
+    private static final SerializableString STARTED = new SerializedString("started");
+    private static final SerializableString FINISHED = new SerializedString("finished");
+    private static final SerializableString DURATION = new SerializedString("duration");
+    private static final SerializableString HAS_ERROR = new SerializedString("hasError");
+    private static final SerializableString SUITE_UUID = new SerializedString("suiteUuid");
+    private static final SerializableString SUITE_NAME = new SerializedString("suiteName");
+    private static final SerializableString STATE = new SerializedString("state");
+    private static final SerializableString ERROR_TYPE = new SerializedString("errorType");
+    private static final SerializableString ERROR = new SerializedString("error");
+    private static final SerializableString ERROR_TRACE = new SerializedString("errorTrace");
+    private static final SerializableString PARENT_UUID = new SerializedString("parentUuid");
+
+    private final JsonGenerator generator;
+    private final boolean binary;
+
+    TestableResultSerializer(Writer out) throws IOException {
+        this.generator = FACTORY.createGenerator(out);
+        this.binary = false;
+    }
+
+    /**
+     * @param out Stream to write to
+     * @param binary True to write Smile, false to write UTF-8 encoded JSON lines
+     */
+    TestableResultSerializer(OutputStream out, boolean binary) throws IOException {
+        this.generator = binary ? SMILE_FACTORY.createGenerator(out) : FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        this.binary = binary;
+    }
+
+    /**
+     * Open a parser over a result stream in either format. The format is detected from the Smile header, which a
+     * JSON lines file can never start with.
+     */
+    static JsonParser openParser(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(1);
+        int first = buffered.read();
+        buffered.reset();
+        return first == (SmileConstants.HEADER_BYTE_1 & 0xFF) ?
+                SMILE_FACTORY.createParser(buffered) : FACTORY.createParser(buffered);
+    }
+
+    /**
+     * Serialize a result as a single JSON object, without a trailing line separator. Intended for console output and
+     * other cases off the hot path.
+     */
+    static String toJson(TestableSelenium.Result result) {
+        StringWriter sw = new StringWriter(256);
+        try {
+            TestableResultSerializer serializer = new TestableResultSerializer(sw);
+            serializer.writeResult(result);
+            serializer.generator.close();
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        return sw.toString();
+    }
+
+    /**
+     * Write the result, followed by a line separator when writing JSON. Output is buffered until {@link #flush()} is
+     * called.
+     */
+    void write(TestableSelenium.Result result) throws IOException {
+        writeResult(result);
+        if (!binary)
+            generator.writeRaw(LINE_SEPARATOR);
+    }
+
+    void flush() throws IOException {
+        generator.flush();
+    }
+
+    private void writeResult(TestableSelenium.Result result) throws IOException {
+        generator.writeStartObject();
+        string(TYPE, result.getType());
+        generator.writeFieldName(DATA);
+        Object data = result.getData();
+        if (data instanceof TestableMetric)
+            writeMetric((TestableMetric) data);
+        else if (data instanceof TestableLog)
+            writeLog((TestableLog) data);
+        else if (data instanceof TestableStartSuiteTest)
+            writeStartSuiteTest((TestableStartSuiteTest) data);
+        else if (data instanceof TestableFinishSuiteTest)
+            writeFinishSuiteTest((TestableFinishSuiteTest) data);
+        else if (data instanceof TestableStartSuite)
+            writeStartSuite((TestableStartSuite) data);
+        else if (data instanceof TestableFinishSuite)
+            writeFinishSuite((TestableFinishSuite) data);
+        else
+            generator.writeObject(data);
+        generator.writeEndObject();
+    }
+
+    private void writeMetric(TestableMetric metric) throws IOException {
+        generator.writeStartObject();
+        string(RESOURCE, metric.getResource());
+        string(URL, metric.getUrl());
+        string(NAMESPACE, metric.getNamespace());
+        string(NAME, metric.getName());
+        string(UNITS, metric.getUnits());
+        string(KEY, metric.getKey());
+        number(VAL, metric.getVal());
+        generator.writeEndObject();
+    }
+
+    private void writeLog(TestableLog log) throws IOException {
+        generator.writeStartObject();
+        string(LEVEL, log.getLevel() != null ? log.getLevel().name() : null);
+        string(MESSAGE, log.getMessage());
+        number(TIMESTAMP, log.getTimestamp());
+        generator.writeEndObject();
+    }
+
+    private void writeStartSuite(TestableStartSuite start) throws IOException {
+        generator.writeStartObject();
+        string(UUID, start.getUuid());
+        string(NAME, start.getName());
+        number(STARTED, start.getStarted());
+        generator.writeEndObject();
+    }
+
+    private void writeFinishSuite(TestableFinishSuite finish) throws IOException {
+        generator.writeStartObject();
+        string(UUID, finish.getUuid());
+        string(NAME, finish.getName());
+        number(FINISHED, finish.getFinished());
+        number(DURATION, finish.getDuration());
+        generator.writeFieldName(HAS_ERROR);
+        generator.writeBoolean(finish.isHasError());
+        generator.writeEndObject();
+    }
+
+    private void writeStartSuiteTest(TestableStartSuiteTest start) throws IOException {
+        generator.writeStartObject();
+        string(SUITE_UUID, start.getSuiteUuid());
+        string(SUITE_NAME, start.getSuiteName());
+        string(UUID, start.getUuid());
+        string(NAME, start.getName());
+        number(STARTED, start.getStarted());
+        if (start.getParentUuid() != null)
+            string(PARENT_UUID, start.getParentUuid());
+        generator.writeEndObject();
+    }
+
+    private void writeFinishSuiteTest(TestableFinishSuiteTest finish) throws IOException {
+        generator.writeStartObject();
+        string(SUITE_UUID, finish.getSuiteUuid());
+        string(SUITE_NAME, finish.getSuiteName());
+        string(UUID, finish.getUuid());
+        string(NAME, finish.getName());
+        number(FINISHED, finish.getFinished());
+        number(DURATION, finish.getDuration());
+        string(STATE, finish.getState());
+        string(ERROR_TYPE, finish.getErrorType());
+        string(ERROR, finish.getError());
+        string(ERROR_TRACE, finish.getErrorTrace());
+        generator.writeEndObject();
+    }
+
+    private void string(SerializableString name, String value) throws IOException {
+        generator.writeFieldName(name);
+        generator.writeString(value);
+    }
+
+    private void number(SerializableString name, long value) throws IOException {
+        generator.writeFieldName(name);
+        generator.writeNumber(value);
+    }
+
+}
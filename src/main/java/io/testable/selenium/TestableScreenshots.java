@@ -0,0 +1,353 @@
+package io.testable.selenium;
+
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Captures screenshots as bytes and writes them to the output directory, either on the calling thread or on a
+ * bounded background executor. Optionally re-encodes (e.g. PNG to JPEG) and downscales images before writing.
+ *
+ * When deduplication is enabled each distinct image is only written once. Repeats, detected by a SHA-256 digest of
+ * the captured bytes or optionally by a 64-bit difference hash (dHash) within a Hamming distance tolerance, are
+ * written as a small [name].ref text file containing the file name of the image they duplicate. Only the
+ * testable_screenshot_dedup_window (default 256) most recently seen digests are remembered, and similar images are
+ * only looked for among the last that many distinct images, which keeps memory bounded and each lookup cheap over a
+ * long test. Images are only remembered within one JVM, so repeats are only detected across
+ * iterations that run in the same JVM (e.g. with {@link TestableSelenium#runVirtualUsers}).
+ */
+class TestableScreenshots {
+
+    static final String FORMAT = System.getProperty("testable_screenshot_format", "png").toLowerCase();
+    static final float QUALITY = Float.parseFloat(System.getProperty("testable_screenshot_quality", "0.8"));
+    static final double SCALE = Double.parseDouble(System.getProperty("testable_screenshot_scale", "1.0"));
+    static final int THREADS = Integer.getInteger("testable_screenshot_threads", 2);
+    static final int QUEUE_SIZE = Integer.getInteger("testable_screenshot_queue_size", 50);
+    static final boolean DEDUP = Boolean.getBoolean("testable_screenshot_dedup");
+    static final int DEDUP_TOLERANCE = Integer.getInteger("testable_screenshot_dedup_tolerance", 0);
+    static final int DEDUP_WINDOW = Math.max(1, Integer.getInteger("testable_screenshot_dedup_window", 256));
+
+    // least recently seen digests are dropped first, guarded by synchronizing on the map
+    private static final Map<String, CompletableFuture<Path>> uniqueByDigest =
+            new LinkedHashMap<String, CompletableFuture<Path>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Path>> eldest) {
+                    return size() > DEDUP_WINDOW;
+                }
+            };
+    private static final Similar[] recentBySimilarity = new Similar[DEDUP_WINDOW];
+    private static int recentCount;
+    private static volatile ThreadPoolExecutor executor;
+
+    static Path take(WebDriver driver, String name) {
+        byte[] png = capture(driver);
+        try {
+            return write(png, TestableSelenium.toName(name));
+        } catch (IOException e) {
+            throw new WebDriverException(e);
+        }
+    }
+
+    static Future<Path> takeAsync(WebDriver driver, String name) {
+        byte[] png = capture(driver);
+        // the name depends on the virtual user's context, which is only available on the calling thread
+        String fileName = TestableSelenium.toName(name);
+        try {
+            return executor().submit(() -> write(png, fileName));
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<Path> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Wait for any screenshots still being written.
+     */
+    static void shutdown() {
+        ThreadPoolExecutor current = executor;
+        if (current == null)
+            return;
+        current.shutdown();
+        try {
+            current.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] capture(WebDriver driver) {
+        if (!TestableOverhead.ENABLED)
+            return ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+        long started = System.nanoTime();
+        byte[] png = ((TakesScreenshot) driver).getScreenshotAs(OutputType.BYTES);
+        TestableOverhead.screenshotCaptured(System.nanoTime() - started);
+        return png;
+    }
+
+    /**
+     * @param name File name already prefixed by {@link TestableSelenium#toName(String)}
+     */
+    private static Path write(byte[] png, String name) throws IOException {
+        if (!TestableOverhead.ENABLED)
+            return writeOrReference(png, name);
+        long started = System.nanoTime();
+        try {
+            return writeOrReference(png, name);
+        } finally {
+            TestableOverhead.screenshotWritten(System.nanoTime() - started);
+        }
+    }
+
+    private static Path writeOrReference(byte[] png, String name) throws IOException {
+        if (!DEDUP)
+            return writeImage(png, null, name);
+        // the first thread to claim a digest (or similar image) writes it, concurrent repeats wait for its path
+        CompletableFuture<Path> claim = new CompletableFuture<>();
+        String digest = sha256(png);
+        CompletableFuture<Path> original;
+        synchronized (uniqueByDigest) {
+            original = uniqueByDigest.get(digest);
+            if (original == null)
+                uniqueByDigest.put(digest, claim);
+        }
+        if (original != null) {
+            Path path = await(original);
+            writeReference(name, path);
+            return path;
+        }
+        try {
+            Path path;
+            BufferedImage image = null;
+            CompletableFuture<Path> similar = null;
+            if (DEDUP_TOLERANCE > 0) {
+                image = decode(png);
+                similar = claimSimilar(dHash(image), claim);
+            }
+            if (similar != null) {
+                path = await(similar);
+                writeReference(name, path);
+            } else {
+                path = writeImage(png, image, name);
+            }
+            // later exact repeats of this image resolve to the same file
+            claim.complete(path);
+            return path;
+        } catch (IOException | RuntimeException e) {
+            claim.completeExceptionally(e);
+            synchronized (uniqueByDigest) {
+                uniqueByDigest.remove(digest, claim);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return The image among the recent distinct images within the tolerance, or null if there is none in which
+     *         case claim is added as a new distinct image
+     */
+    private static CompletableFuture<Path> claimSimilar(long dHash, CompletableFuture<Path> claim) {
+        synchronized (recentBySimilarity) {
+            int count = Math.min(recentCount, DEDUP_WINDOW);
+            for (int i = 0; i < count; i++) {
+                Similar similar = recentBySimilarity[i];
+                if (Long.bitCount(similar.dHash ^ dHash) <= DEDUP_TOLERANCE && !similar.path.isCompletedExceptionally())
+                    return similar.path;
+            }
+            // oldest entry is overwritten once the window is full
+            recentBySimilarity[recentCount++ % DEDUP_WINDOW] = new Similar(dHash, claim);
+            return null;
+        }
+    }
+
+    private static Path await(CompletableFuture<Path> original) throws IOException {
+        try {
+            return original.join();
+        } catch (CompletionException e) {
+            throw new IOException("Unable to write the original of a duplicate screenshot", e.getCause());
+        }
+    }
+
+    private static Path writeImage(byte[] png, BufferedImage decoded, String name) throws IOException {
+        boolean reencode = !"png".equals(FORMAT) || SCALE != 1.0;
+        Path target;
+        if (TestableSelenium.OUTPUT_DIR != null) {
+            target = Paths.get(TestableSelenium.OUTPUT_DIR, reencode ? withExtension(name, FORMAT) : name);
+        } else {
+            // like the temp file WebDriver creates for OutputType.FILE, the name is not part of it since it can
+            // contain characters that are not valid in a file name
+            target = Files.createTempFile("screenshot", "." + (reencode ? FORMAT : "png"));
+            target.toFile().deleteOnExit();
+        }
+        if (!reencode) {
+            Files.write(target, png);
+            return target;
+        }
+        BufferedImage image = scale(decoded != null ? decoded : decode(png));
+        try (OutputStream os = Files.newOutputStream(target)) {
+            encode(image, os);
+        }
+        return target;
+    }
+
+    private static void writeReference(String name, Path original) throws IOException {
+        if (TestableSelenium.OUTPUT_DIR == null)
+            return;
+        Path reference = Paths.get(TestableSelenium.OUTPUT_DIR, name + ".ref");
+        Files.write(reference, (original.getFileName().toString() + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static BufferedImage decode(byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        if (image == null)
+            throw new IOException("Unable to decode screenshot");
+        return image;
+    }
+
+    /**
+     * Difference hash: shrink to 9x8 grayscale and set one bit per pixel that is brighter than its right neighbour.
+     * Visually similar images have hashes with a small Hamming distance.
+     */
+    private static long dHash(BufferedImage image) {
+        BufferedImage small = new BufferedImage(9, 8, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = small.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, 9, 8, null);
+        } finally {
+            g.dispose();
+        }
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash <<= 1;
+                if (small.getRaster().getSample(x, y, 0) > small.getRaster().getSample(x + 1, y, 0))
+                    hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest)
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image) {
+        boolean opaque = !"png".equals(FORMAT);
+        int width = Math.max(1, (int) Math.round(image.getWidth() * SCALE));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * SCALE));
+        if (width == image.getWidth() && height == image.getHeight() && !opaque)
+            return image;
+        // formats like JPEG do not support an alpha channel
+        BufferedImage scaled = new BufferedImage(width, height,
+                opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static void encode(BufferedImage image, OutputStream os) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(FORMAT);
+        if (!writers.hasNext())
+            throw new IOException("No image writer available for format " + FORMAT);
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null)
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                param.setCompressionQuality(QUALITY);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static String withExtension(String name, String extension) {
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + "." + extension;
+    }
+
+    private static class Similar {
+        private final long dHash;
+        private final CompletableFuture<Path> path;
+
+        private Similar(long dHash, CompletableFuture<Path> path) {
+            this.dHash = dHash;
+            this.path = path;
+        }
+    }
+
+    private static ThreadPoolExecutor executor() {
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            synchronized (TestableScreenshots.class) {
+                current = executor;
+                if (current == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    // when the queue is full the caller writes the screenshot itself rather than dropping it
+                    current = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(QUEUE_SIZE), r -> {
+                                Thread thread = new Thread(r, "testable-screenshot-" + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }, (r, pool) -> {
+                                if (pool.isShutdown())
+                                    throw new RejectedExecutionException("Screenshot writer has shut down");
+                                r.run();
+                            });
+                    executor = current;
+                    TestableSelenium.registerShutdownHook();
+                }
+            }
+        }
+        return current;
+    }
+
+}
@@ -1,7 +1,5 @@
 package io.testable.selenium;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
@@ -12,22 +10,27 @@ import org.openqa.selenium.firefox.FirefoxOptions;
 import org.openqa.selenium.edge.EdgeOptions;
 import org.openqa.selenium.remote.BrowserType;
 import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.CommandExecutor;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
 import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.support.events.EventFiringWebDriver;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -46,16 +49,46 @@ public class TestableSelenium {
     public static final String GLOBAL_CLIENT_INDEX = System.getProperty("TESTABLE_GLOBAL_CLIENT_INDEX");
     public static final String ITERATION = System.getProperty("TESTABLE_ITERATION");
     public static final String RESULT_FILE = System.getProperty("TESTABLE_RESULT_FILE");
+    public static final String RESULT_FORMAT = System.getProperty("testable_result_format", "json");
+    public static final long RESULT_ROLL_BYTES = Long.getLong("testable_result_roll_bytes", 0);
+    public static final long RESULT_ROLL_INTERVAL_MS = Long.getLong("testable_result_roll_interval_ms", 0);
+    public static final boolean RESULT_COMPRESS =
+            Boolean.parseBoolean(System.getProperty("testable_result_compress", "true"));
+    public static final boolean COMMAND_TIMINGS = Boolean.getBoolean("testable_command_timings");
+    public static final boolean ASYNC_RESULTS = Boolean.getBoolean("testable_async_results");
+    public static final int ASYNC_QUEUE_SIZE = Integer.getInteger("testable_async_queue_size", 10000);
+    public static final int ASYNC_BATCH_SIZE = Integer.getInteger("testable_async_batch_size", 500);
+    public static final long ASYNC_FLUSH_INTERVAL_MS = Long.getLong("testable_async_flush_interval_ms", 250);
+    public static final String ASYNC_OVERFLOW = System.getProperty("testable_async_overflow", "block");
+    public static final boolean AGGREGATE_METRICS = Boolean.getBoolean("testable_aggregate_metrics");
+    public static final long AGGREGATE_WINDOW_MS = Long.getLong("testable_aggregate_window_ms", 10000);
 
-    private static PrintWriter resultStream;
+    private static final Map<Capabilities, TestableWebDriverPool> webDriverPools = new ConcurrentHashMap<>();
+    private static final AtomicBoolean shutdownHookRegistered = new AtomicBoolean();
+    private static TestableResultFile resultStream;
+    private static final TestableAsyncWriter asyncWriter;
+    private static TestableMetricAggregator aggregator;
     static {
         try {
-            resultStream = RESULT_FILE != null ? new PrintWriter(new FileWriter(RESULT_FILE, true)) : null;
+            resultStream = RESULT_FILE != null ? new TestableResultFile(RESULT_FILE, "smile".equalsIgnoreCase(RESULT_FORMAT),
+                    RESULT_ROLL_BYTES, RESULT_ROLL_INTERVAL_MS, RESULT_COMPRESS) : null;
         } catch (IOException ioe) {
             System.out.println("Issue writing to Testable result file");
             ioe.printStackTrace();
             resultStream = null;
         }
+        if (resultStream != null && ASYNC_RESULTS) {
+            TestableAsyncWriter.Overflow overflow = "drop".equalsIgnoreCase(ASYNC_OVERFLOW) ?
+                    TestableAsyncWriter.Overflow.Drop : TestableAsyncWriter.Overflow.Block;
+            asyncWriter = new TestableAsyncWriter(resultStream, ASYNC_QUEUE_SIZE, ASYNC_BATCH_SIZE,
+                    ASYNC_FLUSH_INTERVAL_MS, overflow);
+        } else {
+            asyncWriter = null;
+        }
+        if (AGGREGATE_METRICS)
+            aggregator = new TestableMetricAggregator(AGGREGATE_WINDOW_MS);
+        if (asyncWriter != null || aggregator != null || (resultStream != null && resultStream.isRolling()))
+            registerShutdownHook();
     }
 
     private static String WEBDRIVER_URL;
@@ -74,17 +107,59 @@ public class TestableSelenium {
      * the SELENIUM_PORT system property or http://localhost:[port] in cases where Testable is expecting to use
      * chromedriver directly (e.g. OpenFin). When run locally outside Testable, the default Selenium port (4444) is used.
      *
+     * When the <code>testable_command_timings</code> system property is true, every WebDriver command sent by the
+     * returned driver is timed in milliseconds into a {@link TestableMetrics.Timer} named after the command in the
+     * WebDriver namespace, with the name of the current {@link TestableStep} as the resource.
+     *
+     * All drivers share one HTTP connection pool that keeps connections to the driver alive between commands, see
+     * {@link TestableHttpClientFactory} for the <code>testable_http_*</code> system properties that tune it.
+     *
      * @param capabilities Capabilities to utilize
      * @return A WebDriver instance that is compatible with the local Testable Selenium instance.
      */
     public static WebDriver newWebDriver(Capabilities capabilities) {
         try {
-            return new RemoteWebDriver(new URL(WEBDRIVER_URL), capabilities);
+            CommandExecutor executor = new HttpCommandExecutor(Collections.emptyMap(), new URL(WEBDRIVER_URL),
+                    TestableHttpClientFactory.shared());
+            if (COMMAND_TIMINGS)
+                executor = new TestableCommandExecutor(executor);
+            return new RemoteWebDriver(executor, capabilities);
         } catch (MalformedURLException e) {
             throw new WebDriverException(e);
         }
     }
 
+    /**
+     * Get the shared pool of pre-warmed browser sessions for these capabilities, creating it on first use. Creating
+     * a browser session is often the slowest part of a test iteration, so the pool starts creating sessions in the
+     * background right away and resets and reuses sessions once they are released. All pools are closed when the JVM
+     * shuts down.
+     *
+     * Example:
+     *
+     * <pre>
+     * {@code TestableWebDriverPool pool = TestableSelenium.getWebDriverPool(new ChromeOptions(), 5, 20);
+     * WebDriver driver = pool.acquire();
+     * try {
+     *     driver.get("https://www.google.com");
+     * } finally {
+     *     pool.release(driver);
+     * } }
+     * </pre>
+     *
+     * @param capabilities Capabilities to utilize, the pool is shared by all callers passing equal capabilities
+     * @param size Number of browser sessions to keep in the pool
+     * @param maxReuse Number of times a session can be used before it is quit and replaced, 0 for no limit
+     * @return The pool for these capabilities. If it already exists the size and maxReuse arguments are ignored.
+     */
+    public static TestableWebDriverPool getWebDriverPool(Capabilities capabilities, int size, int maxReuse) {
+        // copy so that later changes to the caller's capabilities do not affect the pool or its key
+        return webDriverPools.computeIfAbsent(new ImmutableCapabilities(capabilities), c -> {
+            registerShutdownHook();
+            return new TestableWebDriverPool(c, size, maxReuse);
+        });
+    }
+
     /**
      * Takes a screenshot of the current browser and copies it to the appropriate output directory to be picked up
      * by the test runner (found at the OUTPUT_DIR system property). When run locally the file is not copied but the
@@ -97,16 +172,91 @@ public class TestableSelenium {
      * @return The path where the screenshot can be found.
      */
     public static Path takeScreenshot(WebDriver driver, String name) {
-        try {
-            File screenshot = ((TakesScreenshot) driver).getScreenshotAs(OutputType.FILE);
-            if (OUTPUT_DIR != null) {
-                return Files.copy(screenshot.toPath(), Paths.get(OUTPUT_DIR, toName(name)), StandardCopyOption.REPLACE_EXISTING);
-            } else {
-                return screenshot.toPath();
-            }
-        } catch (IOException e) {
-            throw new WebDriverException(e);
-        }
+        return TestableScreenshots.take(driver, name);
+    }
+
+    /**
+     * Takes a screenshot of the current browser and writes it to the output directory on a background thread so that
+     * image encoding and disk I/O do not count against your test step timings. Only capturing the image from the
+     * browser happens on the calling thread. If too many screenshots are waiting to be written the calling thread
+     * writes this one itself.
+     *
+     * The following system properties control how images are written (for both this method and
+     * {@link #takeScreenshot(WebDriver, String)}):
+     *
+     * <ul>
+     *     <li>testable_screenshot_format: Image format to write, e.g. png (default) or jpg. The file extension of the
+     *     name is changed to match.</li>
+     *     <li>testable_screenshot_quality: Compression quality between 0 and 1 for lossy formats (default 0.8)</li>
+     *     <li>testable_screenshot_scale: Factor to scale the image by before writing (default 1.0)</li>
+     *     <li>testable_screenshot_threads: Number of background threads writing screenshots (default 2)</li>
+     *     <li>testable_screenshot_queue_size: Number of screenshots that can wait to be written (default 50)</li>
+     * </ul>
+     *
+     * @param driver The WebDriver instance
+     * @param name Name of the file to use, see {@link #takeScreenshot(WebDriver, String)}.
+     * @return A future that completes with the path of the written screenshot, or fails if the JVM is already
+     *         shutting down.
+     */
+    public static Future<Path> takeScreenshotAsync(WebDriver driver, String name) {
+        return TestableScreenshots.takeAsync(driver, name);
+    }
+
+    /**
+     * Collect user-centric performance metrics for the page currently loaded in the browser and report them as custom
+     * metrics tagged with the page URL. Uses the bundled rum-speedindex.js script which is run in a single
+     * executeScript() call. Reported metrics:
+     *
+     * <ul>
+     *     <li>Timings (ms): Speed Index, First Paint, First Contentful Paint, Time To First Byte, First Interactive,
+     *     Page Load Time</li>
+     *     <li>Counters: Page Weight (bytes), Page Requests (requests)</li>
+     *     <li>Metered (bytes, Chrome only): JS Heap Used, JS Heap Total, JS Heap Limit</li>
+     * </ul>
+     *
+     * Values the browser does not support are not reported.
+     *
+     * @param driver The WebDriver instance, must implement {@link JavascriptExecutor}
+     * @return The raw values returned by the script
+     */
+    public static Map<String, Object> collectPerformanceMetrics(WebDriver driver) {
+        return TestablePerformanceMetrics.collect(driver);
+    }
+
+    /**
+     * Wrap a driver so that {@link #collectPerformanceMetrics(WebDriver)} is called automatically after every
+     * navigation (get, navigate to/back/forward/refresh) made through the returned driver. Navigations caused by
+     * clicking links are not detected, call collectPerformanceMetrics() directly for those.
+     *
+     * @param driver The WebDriver instance, must implement {@link JavascriptExecutor}
+     * @return A driver to use in place of the original
+     */
+    public static WebDriver collectPerformanceMetricsOnNavigation(WebDriver driver) {
+        return new EventFiringWebDriver(driver).register(new TestablePerformanceMetrics.NavigationListener());
+    }
+
+    /**
+     * Collect timings for the resources (scripts, images, XHR/fetch calls, ...) the current page loaded since the
+     * previous call on the same page, in a single executeScript() call. The first call on a page returns everything
+     * loaded so far. Only new entries are transferred, so this can be called repeatedly on long lived single page
+     * apps. Each resource is reported as the following custom metrics, tagged with the page URL and with the
+     * resource set to "[host] [initiator type]" (e.g. "cdn.example.com script"):
+     *
+     * <ul>
+     *     <li>Timings (ms): Resource DNS Time, Resource Connect Time, Resource Time To First Byte, Resource Download
+     *     Time, Resource Duration</li>
+     *     <li>Counters: Resource Transfer Size (bytes), Resource Requests (requests)</li>
+     * </ul>
+     *
+     * Cross-origin resources only report the detailed timings and transfer size if the server sends a
+     * Timing-Allow-Origin header.
+     *
+     * @param driver The WebDriver instance, must implement {@link JavascriptExecutor}
+     * @return One map per new resource with the keys name, host, type, dns, connect, ttfb, download, duration,
+     * transferSize and encodedBodySize. Values the browser does not expose are -1.
+     */
+    public static List<Map<String, Object>> collectResourceTimings(WebDriver driver) {
+        return TestablePerformanceMetrics.collectResources(driver);
     }
 
     /**
@@ -123,9 +273,15 @@ public class TestableSelenium {
      *     .build()); }
      * </pre>
      *
+     * When the testable_aggregate_metrics system property is set to true, counter, timing, and histogram metrics are
+     * instead aggregated on the client and reported once per window (see testable_aggregate_window_ms). Timings are
+     * reported as a TimingRollup with count, min, max, mean, and p50/p90/p99.
+     *
      * @param metric
      */
     public static void reportMetric(TestableMetric metric) {
+        if (aggregator != null && aggregator.record(metric))
+            return;
         writeToStream(new Result(metric.getType().name(), metric));
     }
 
@@ -138,11 +294,36 @@ public class TestableSelenium {
      * @param msg The message to log.
      */
     public static void log(TestableLog.Level level, String msg) {
+        if (!TestableLogFilter.accept(level))
+            return;
         writeToStream(new Result("Log", new TestableLog(level, msg, System.currentTimeMillis())));
     }
 
     /**
-     * Log an exception into the test results at the chosen level. The entire stack trace will be logged.
+     * Log a message into the test results at the chosen level. The message is only built if the level is enabled
+     * (see the <code>testable_log_level</code> system property) and within the rate limit, so expensive messages cost
+     * nothing when they would be discarded anyway.
+     *
+     * @param level The logging level
+     * @param msg Supplies the message to log
+     */
+    public static void log(TestableLog.Level level, Supplier<String> msg) {
+        if (!TestableLogFilter.accept(level))
+            return;
+        writeToStream(new Result("Log", new TestableLog(level, msg.get(), System.currentTimeMillis())));
+    }
+
+    /**
+     * @param level The logging level
+     * @return Whether messages at this level are written, see the <code>testable_log_level</code> system property
+     */
+    public static boolean isLogEnabled(TestableLog.Level level) {
+        return TestableLogFilter.isEnabled(level);
+    }
+
+    /**
+     * Log an exception into the test results at the chosen level. The entire stack trace will be logged. With
+     * <code>testable_log_dedup</code> enabled, repeats of the same exception are counted instead of logged again.
      * When run outside Testable logging is simply written to the console. Trace level logging is only available while
      * smoke testing a scenario. Fatal logging will cause your entire test run to stop.
      *
@@ -150,6 +331,8 @@ public class TestableSelenium {
      * @param cause The exception to log
      */
     public static void log(TestableLog.Level level, Throwable cause) {
+        if (!TestableLogFilter.accept(level, cause))
+            return;
         String msg = Throwables.getStackTraceAsString(cause);
         writeToStream(new Result("Log", new TestableLog(level, msg, System.currentTimeMillis())));
     }
@@ -166,6 +349,19 @@ public class TestableSelenium {
         return new TestableCSVReader(path);
     }
 
+    /**
+     * Read data from a CSV uploaded to your scenario, choosing whether the file is parsed into memory up front or
+     * memory-mapped with rows parsed on demand. Use indexed=true for files with millions of rows.
+     *
+     * @param path Path to your CSV file. Relative to the classpath or working directory.
+     * @param indexed If true memory-map the file and only keep an index of row offsets in memory.
+     * @return A {@link TestableCSVReader} instance to access the contents of the CSV in various ways.
+     * @throws IOException
+     */
+    public static TestableCSVReader readCsv(String path, boolean indexed) throws IOException {
+        return new TestableCSVReader(path, indexed);
+    }
+
     /**
      * Start a new set of test steps that you want to record and view in the Assertions widget within the Testable
      * test results. Allows you to track a series of test steps, whether they pass, any errors that occurred, and the
@@ -178,26 +374,138 @@ public class TestableSelenium {
         return new TestableTest(name);
     }
 
-    private static String toName(String name) {
+    /**
+     * Run several virtual users concurrently inside this JVM, each on its own thread with its own
+     * {@link TestableContext}. Each virtual user runs the test the given number of iterations. If this process was
+     * started by Testable as virtual user N of M, the in-process virtual users are numbered N * virtualUsers + i out
+     * of M * virtualUsers so that CSV iteration and screenshot names remain unique across test runners. Any exception
+     * or error (e.g. a failed assertion) thrown by an iteration is logged at the Error level and the virtual user
+     * moves on to its next iteration. Blocks until all virtual users have finished.
+     *
+     * @param virtualUsers Number of concurrent virtual users to run in this JVM
+     * @param iterations Number of iterations each virtual user should run
+     * @param test The test to run, called once per iteration with that virtual user's context
+     * @throws InterruptedException If interrupted while waiting for the virtual users to finish
+     */
+    public static void runVirtualUsers(int virtualUsers, int iterations, Consumer<TestableContext> test)
+            throws InterruptedException {
+        TestableContext process = TestableContext.process();
+        List<Thread> threads = new ArrayList<>(virtualUsers);
+        for (int i = 0; i < virtualUsers; i++) {
+            TestableContext first = new TestableContext(process.getClientIndex() * virtualUsers + i,
+                    process.getIteration() * iterations, process.getConcurrentClients() * virtualUsers);
+            Thread thread = new Thread(() -> {
+                TestableContext context = first;
+                for (int iteration = 0; iteration < iterations; iteration++) {
+                    TestableContext current = context;
+                    current.run(() -> {
+                        try {
+                            test.accept(current);
+                        } catch (Throwable t) {
+                            // includes assertion failures, which would otherwise silently end this virtual user
+                            log(TestableLog.Level.Error, t);
+                        }
+                    });
+                    context = context.nextIteration();
+                }
+            }, "testable-vu-" + first.getClientIndex());
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    static String toName(String name) {
         if (REGION_NAME != null) {
-            return REGION_NAME + "-" + GLOBAL_CLIENT_INDEX + "-" + ITERATION + "-" + name;
+            TestableContext context = TestableContext.current();
+            return REGION_NAME + "-" + context.getClientIndex() + "-" + context.getIteration() + "-" + name;
         } else {
             return name;
         }
     }
 
+    /**
+     * The number of results that were dropped instead of written because the asynchronous result queue was full
+     * (only when the testable_async_overflow system property is set to "drop") or the writer had already shut down.
+     *
+     * @return Number of dropped results, always 0 when asynchronous result writing is not enabled.
+     */
+    public static long getDroppedResultCount() {
+        return asyncWriter != null ? asyncWriter.getDropped() : 0;
+    }
+
+    /**
+     * @return Number of results waiting in the asynchronous result queue, 0 when results are written synchronously
+     */
+    static int getResultQueueDepth() {
+        return asyncWriter != null ? asyncWriter.getQueueDepth() : 0;
+    }
+
+    static void registerShutdownHook() {
+        if (shutdownHookRegistered.compareAndSet(false, true))
+            Runtime.getRuntime().addShutdownHook(new Thread(TestableSelenium::shutdown, "testable-shutdown"));
+    }
+
+    private static void shutdown() {
+        for (TestableWebDriverPool pool : webDriverPools.values())
+            pool.close();
+        TestableHttpClientFactory.close();
+        TestableScreenshots.shutdown();
+        TestableLogFilter.close();
+        TestableMetrics.close();
+        // order matters: the final aggregation window is written through the async writer before it drains
+        if (aggregator != null)
+            aggregator.close();
+        // anything reported from here on is counted as dropped, see getDroppedResultCount()
+        if (asyncWriter != null)
+            asyncWriter.close();
+        // the overhead of draining the queue above was recorded after the metrics were closed, write it directly
+        // since the async writer no longer accepts results
+        if (TestableOverhead.ENABLED)
+            TestableMetrics.flush(TestableSelenium::writeDirect);
+        if (resultStream != null) {
+            synchronized (resultStream) {
+                try {
+                    resultStream.close();
+                } catch (IOException ioe) {
+                    System.out.println("Issue closing Testable result file");
+                    ioe.printStackTrace();
+                }
+            }
+        }
+    }
+
     static void writeToStream(Result result) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            String text = mapper.writeValueAsString(result);
-            if (resultStream != null) {
-                resultStream.println(text);
-                resultStream.flush();
-            } else
-                System.out.println("[" + result.getType() + "] " + text);
-        } catch (JsonProcessingException jpe) {
-            throw new RuntimeException(jpe);
+        if (!TestableOverhead.ENABLED) {
+            write(result);
+            return;
         }
+        long started = System.nanoTime();
+        write(result);
+        TestableOverhead.reported(System.nanoTime() - started);
+    }
+
+    private static void write(Result result) {
+        if (asyncWriter != null)
+            asyncWriter.submit(result);
+        else
+            writeDirect(result);
+    }
+
+    private static void writeDirect(Result result) {
+        if (resultStream != null) {
+            synchronized (resultStream) {
+                try {
+                    resultStream.write(result);
+                    resultStream.flush();
+                } catch (IOException ioe) {
+                    System.out.println("Issue writing to Testable result file");
+                    ioe.printStackTrace();
+                }
+            }
+        } else
+            System.out.println("[" + result.getType() + "] " + TestableResultSerializer.toJson(result));
     }
 
     static class Result {
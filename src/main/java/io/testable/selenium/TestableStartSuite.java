@@ -1,17 +1,19 @@
 package io.testable.selenium;
 
-import java.util.UUID;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class TestableStartSuite {
 
     private final String uuid;
     private final String name;
     private final long started;
+    private final long startedNanos;
 
     public TestableStartSuite(String name, long started) {
-        this.uuid = UUID.randomUUID().toString();
+        this.uuid = TestableIds.next();
         this.name = name;
         this.started = started;
+        this.startedNanos = System.nanoTime();
     }
 
     public String getUuid() {
@@ -26,4 +28,12 @@ public class TestableStartSuite {
         return started;
     }
 
+    /**
+     * @return The {@link System#nanoTime()} when the suite was created, used to measure duration.
+     */
+    @JsonIgnore
+    public long getStartedNanos() {
+        return startedNanos;
+    }
+
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package io.testable.selenium;
 
-import java.util.UUID;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 public class TestableStartSuiteTest {
 
@@ -9,13 +10,33 @@ public class TestableStartSuiteTest {
     private final String uuid;
     private final String name;
     private final long started;
+    private final String parentUuid;
+    private final long startedNanos;
 
     public TestableStartSuiteTest(TestableStartSuite startSuite, String name, long started) {
+        this(startSuite, name, started, null);
+    }
+
+    /**
+     * The duration of a step created with this constructor is measured from when it is created.
+     */
+    public TestableStartSuiteTest(TestableStartSuite startSuite, String name, long started, String parentUuid) {
+        this(startSuite, name, started, parentUuid, System.nanoTime());
+    }
+
+    /**
+     * @param started Wall clock start time, only reported
+     * @param startedNanos {@link System#nanoTime()} at the start, used to measure duration
+     */
+    TestableStartSuiteTest(TestableStartSuite startSuite, String name, long started, String parentUuid,
+                           long startedNanos) {
         this.suiteUuid = startSuite.getUuid();
         this.suiteName = startSuite.getName();
-        this.uuid = UUID.randomUUID().toString();
+        this.uuid = TestableIds.next();
         this.name = name;
         this.started = started;
+        this.parentUuid = parentUuid;
+        this.startedNanos = startedNanos;
     }
 
     public String getSuiteUuid() { return suiteUuid; }
@@ -34,4 +55,20 @@ public class TestableStartSuiteTest {
         return started;
     }
 
+    /**
+     * @return The uuid of the step this step is nested in, or null for a top level step.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getParentUuid() {
+        return parentUuid;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at the start, used to measure duration.
+     */
+    @JsonIgnore
+    public long getStartedNanos() {
+        return startedNanos;
+    }
+
 }
\ No newline at end of file
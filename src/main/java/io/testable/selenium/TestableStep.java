@@ -0,0 +1,231 @@
+package io.testable.selenium;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * A test step started with {@link TestableTest#step(String)}. Steps can be nested: any step started on the same
+ * thread while this one is open is recorded as its child. Closing the step reports it as passed unless it was
+ * already failed or skipped, so the typical usage is try-with-resources:
+ *
+ * <pre>
+ * {@code try (TestableStep checkout = test.step("Checkout")) {
+ *     try (TestableStep payment = test.step("Enter payment details")) {
+ *         ...
+ *     }
+ *     try (TestableStep confirm = test.step("Confirm order")) {
+ *         try {
+ *             ...
+ *         } catch (RuntimeException e) {
+ *             confirm.fail(e);
+ *         }
+ *     }
+ * } }
+ * </pre>
+ *
+ * Durations are measured with {@link System#nanoTime()} so they are not affected by wall clock adjustments.
+ *
+ * A step started with {@link TestableTest#step(String, long, TimeUnit)} has a deadline. If it is still open when the
+ * deadline passes it is reported as failed with a timeout error right away, without waiting for the code running
+ * the step to return. See {@link TestableTest#runStep(String, long, TimeUnit, WebDriver, Runnable)} for details.
+ */
+public class TestableStep implements AutoCloseable {
+
+    private static final ThreadLocal<TestableStep> CURRENT = new ThreadLocal<>();
+
+    private final TestableTest test;
+    private final TestableStep parent;
+    private final TestableStartSuiteTest start;
+    private volatile boolean finished = false;
+    private final Thread owner;
+    private ScheduledFuture<?> deadline;
+    private long deadlineNanos;
+    private volatile boolean timedOut = false;
+    private volatile boolean aborted = false;
+    // only accessed by the owner thread
+    private boolean ownerFinished = false;
+
+    TestableStep(TestableTest test, TestableStep parent, TestableStartSuiteTest start) {
+        this.test = test;
+        this.parent = parent;
+        this.start = start;
+        this.owner = Thread.currentThread();
+        CURRENT.set(this);
+    }
+
+    /**
+     * @return The innermost open step on the calling thread, or null if there is none.
+     */
+    public static TestableStep current() {
+        return CURRENT.get();
+    }
+
+    static void clearCurrent() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Start a step nested inside this one.
+     *
+     * @param name Name of the nested step
+     * @return The nested step, close it when done
+     */
+    public TestableStep step(String name) {
+        return test.step(name, this);
+    }
+
+    public TestableTest getTest() {
+        return test;
+    }
+
+    public TestableStep getParent() {
+        return parent;
+    }
+
+    public String getUuid() {
+        return start.getUuid();
+    }
+
+    public String getName() {
+        return start.getName();
+    }
+
+    /**
+     * Mark this step as failed with an exception.
+     *
+     * @param t The error that occurred while running the step
+     */
+    public void fail(Throwable t) {
+        finish(() -> TestableFinishSuiteTest.failed(start, t));
+    }
+
+    /**
+     * Mark this step as failed.
+     *
+     * @param errorMsg The error message
+     */
+    public void fail(String errorMsg) {
+        finish(() -> TestableFinishSuiteTest.failed(start, errorMsg));
+    }
+
+    /**
+     * Mark this step as skipped.
+     */
+    public void skip() {
+        finish(() -> TestableFinishSuiteTest.skipped(start));
+    }
+
+    /**
+     * Mark this step as passed. Does nothing if the step already finished.
+     */
+    @Override
+    public void close() {
+        finish(() -> TestableFinishSuiteTest.passed(start));
+    }
+
+    /**
+     * @return True if the step was failed by its deadline
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    TestableStartSuiteTest getStart() {
+        return start;
+    }
+
+    /**
+     * Fail this step if it is still open once the timeout has elapsed. On timeout a "Step Timeouts" counter is
+     * reported and, if a driver is passed, the thread running the step is interrupted and the driver quit so that a
+     * hung WebDriver command returns. Once the step finally returns its overrun past the deadline is reported as a
+     * "Step Overrun" timing.
+     */
+    synchronized void deadline(long timeout, TimeUnit unit, WebDriver abort) {
+        deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        deadline = TestableWatchdog.schedule(() -> timeout(timeout, unit, abort), timeout, unit);
+    }
+
+    private synchronized void timeout(long timeout, TimeUnit unit, WebDriver abort) {
+        String msg = "Step did not finish within " + timeout + " " + unit.name().toLowerCase();
+        if (!finish(() -> TestableFinishSuiteTest.failed(start, new TimeoutException(msg))))
+            return;
+        timedOut = true;
+        TestableSelenium.reportMetric(TestableMetric.newCounterBuilder()
+                .withName("Step Timeouts")
+                .withResource(getName())
+                .withUnits("timeouts")
+                .withVal(1)
+                .build());
+        if (abort != null) {
+            // interrupting while holding the lock guarantees the owner clears the flag when it finishes the step
+            aborted = true;
+            owner.interrupt();
+            // quitting can take a while, keep the watchdog thread free for other deadlines
+            CompletableFuture.runAsync(() -> {
+                try {
+                    abort.quit();
+                } catch (WebDriverException e) {
+                    // session already gone
+                }
+            });
+        }
+    }
+
+    /**
+     * @return True if this call finished the step, false if it was already finished
+     */
+    private boolean finish(Supplier<TestableFinishSuiteTest> finishMsg) {
+        boolean finishedNow;
+        synchronized (this) {
+            finishedNow = !finished;
+            if (finishedNow) {
+                finished = true;
+                if (deadline != null)
+                    deadline.cancel(false);
+                test.finish(start, finishMsg.get());
+            }
+        }
+        // only the thread running the step can restore its current step, a deadline finishes it from the watchdog
+        if (Thread.currentThread() == owner && !ownerFinished) {
+            ownerFinished = true;
+            restoreCurrent();
+            if (aborted)
+                Thread.interrupted();
+            if (timedOut) {
+                TestableSelenium.reportMetric(TestableMetric.newTimingBuilder()
+                        .withName("Step Overrun")
+                        .withResource(getName())
+                        .withUnits("ms")
+                        .withVal(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - deadlineNanos))
+                        .build());
+            }
+        }
+        return finishedNow;
+    }
+
+    /**
+     * If this step or one of its children is the current step, make the closest open ancestor of this step current.
+     * A child that was never closed, e.g. because an exception skipped its close(), is left behind with this step.
+     */
+    private void restoreCurrent() {
+        for (TestableStep step = CURRENT.get(); step != null; step = step.parent) {
+            if (step == this) {
+                TestableStep open = parent;
+                while (open != null && open.finished)
+                    open = open.parent;
+                if (open != null)
+                    CURRENT.set(open);
+                else
+                    CURRENT.remove();
+                return;
+            }
+        }
+    }
+
+}
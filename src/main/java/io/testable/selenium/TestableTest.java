@@ -1,16 +1,41 @@
 package io.testable.selenium;
 
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
 /**
  * Keep track of a suite of test steps that you want to report back into the Testable results. Make sure to call
- * the finished() method when the test is completed.
+ * the finished() method when the test is completed. Instances are thread safe, but when several virtual users run
+ * in one JVM each virtual user will typically start its own test.
  */
 public class TestableTest {
 
     private static final boolean IGNORE_SKIPS = Boolean.getBoolean("testable_ignore_skips");
+    private static final AtomicInteger browserThreads = new AtomicInteger();
+    private static final ExecutorService BROWSER_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "testable-browser-" + browserThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the step started with startStep() on each thread and not yet finished, used to attribute WebDriver command
+    // timings; tracked per thread since currentTest is shared by every thread using the test
+    private static final ThreadLocal<TestableStartSuiteTest> LEGACY_STEP = new ThreadLocal<>();
 
     private final TestableStartSuite startSuite;
-    private TestableStartSuiteTest currentTest = null;
-    private boolean hasError = false;
+    private volatile TestableStartSuiteTest currentTest = null;
+    private volatile boolean hasError = false;
 
     TestableTest(String name) {
         this.startSuite = new TestableStartSuite(name, System.currentTimeMillis());
@@ -19,20 +44,177 @@ public class TestableTest {
 
     /**
      * Runs your code and reports back as a test step into the test result. Any exception that occurs in your
-     * code is captured and considered to be a test step failure.
+     * code is captured and considered to be a test step failure. Errors, including failed assertions, also fail the
+     * step and are then rethrown. Safe to call from multiple threads at once, each
+     * call reports its own step.
      * @param name Test step name
      * @param step Code to run
      */
     public void runStep(String name, Runnable step) {
+        try (TestableStep started = step(name)) {
+            run(started, step);
+        }
+    }
+
+    /**
+     * Runs your code as a test step like {@link #runStep(String, Runnable)}, but reports the step as failed with a
+     * timeout error as soon as the timeout elapses. The step keeps running until your code returns, its overrun past
+     * the deadline is then reported as a "Step Overrun" timing. Each timeout is also counted in a "Step Timeouts"
+     * counter. All deadlines share a single watchdog thread.
+     *
+     * @param name Test step name
+     * @param timeout Maximum time the step may take
+     * @param unit Unit of the timeout
+     * @param step Code to run
+     */
+    public void runStep(String name, long timeout, TimeUnit unit, Runnable step) {
+        runStep(name, timeout, unit, null, step);
+    }
+
+    /**
+     * Like {@link #runStep(String, long, TimeUnit, Runnable)}, but on timeout also aborts the step: the thread
+     * running it is interrupted and the driver is quit, so a hung WebDriver command fails instead of blocking the
+     * virtual user. The driver can not be used afterwards.
+     *
+     * @param name Test step name
+     * @param timeout Maximum time the step may take
+     * @param unit Unit of the timeout
+     * @param abort Driver to quit if the step times out, null to only fail the step
+     * @param step Code to run
+     */
+    public void runStep(String name, long timeout, TimeUnit unit, WebDriver abort, Runnable step) {
+        try (TestableStep started = step(name)) {
+            started.deadline(timeout, unit, abort);
+            run(started, step);
+        }
+    }
+
+    private static void run(TestableStep started, Runnable step) {
         try {
-            startStep(name);
             step.run();
-            finishSuccessfulStep();
-        } catch(Exception e) {
-            finishFailedStep(e);
+        } catch(Throwable t) {
+            // assertion failures and other errors fail the step too, errors are then rethrown to the caller
+            started.fail(t);
+            if (t instanceof Error)
+                throw (Error) t;
+        }
+    }
+
+    /**
+     * Run the same step against several browsers at once, e.g. to compare Chrome, Firefox and Edge in a single
+     * iteration. Each browser's run is reported as its own step named "[name] [browser]", nested under the step open
+     * on the calling thread if there is one, and as a Timing metric with the step name as the metric name and the
+     * browser as the resource. Blocks until all browsers are done. A failure in one browser, including a failed
+     * assertion, fails that browser's step and is returned in its result without affecting the others.
+     *
+     * Example:
+     *
+     * <pre>
+     * {@code List<TestableBrowserResult<String>> results = test.runStepOnBrowsers("Search", drivers, driver -> {
+     *     driver.get("https://www.google.com");
+     *     return driver.getTitle();
+     * }); }
+     * </pre>
+     *
+     * @param name Test step name
+     * @param drivers The browsers to run the step in, each is used by one thread only
+     * @param step Code to run for each browser, return null if there is nothing to return
+     * @param <T> Type of the value returned by the step
+     * @return One result per driver, in the same order as the drivers
+     */
+    public <T> List<TestableBrowserResult<T>> runStepOnBrowsers(String name, List<? extends WebDriver> drivers,
+                                                                Function<WebDriver, T> step) {
+        TestableStep current = TestableStep.current();
+        TestableStep parent = current != null && current.getTest() == this ? current : null;
+        TestableContext context = TestableContext.current();
+        List<CompletableFuture<TestableBrowserResult<T>>> futures = new ArrayList<>(drivers.size());
+        for (WebDriver driver : drivers) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                AtomicReference<TestableBrowserResult<T>> result = new AtomicReference<>();
+                context.run(() -> result.set(runOnBrowser(name, parent, driver, step)));
+                return result.get();
+            }, BROWSER_EXECUTOR));
+        }
+        List<TestableBrowserResult<T>> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<TestableBrowserResult<T>> future : futures)
+            results.add(future.join());
+        return results;
+    }
+
+    private <T> TestableBrowserResult<T> runOnBrowser(String name, TestableStep parent, WebDriver driver,
+                                                      Function<WebDriver, T> step) {
+        String browser = browserName(driver);
+        try (TestableStep started = step(name + " [" + browser + "]", parent)) {
+            long startedNanos = System.nanoTime();
+            T value = null;
+            Throwable error = null;
+            try {
+                value = step.apply(driver);
+            } catch (Throwable t) {
+                // includes assertion failures, which must fail this browser's step without affecting the others
+                error = t;
+            }
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+            if (error != null)
+                started.fail(error);
+            TestableSelenium.reportMetric(TestableMetric.newTimingBuilder()
+                    .withName(name)
+                    .withResource(browser)
+                    .withUnits("ms")
+                    .withVal(duration)
+                    .build());
+            return new TestableBrowserResult<>(driver, browser, value, error, duration);
+        } finally {
+            // pool threads are reused, do not leave the parent step behind as their current step
+            TestableStep.clearCurrent();
         }
     }
 
+    private static String browserName(WebDriver driver) {
+        if (driver instanceof HasCapabilities) {
+            try {
+                String browserName = ((HasCapabilities) driver).getCapabilities().getBrowserName();
+                if (browserName != null && !browserName.isEmpty())
+                    return browserName;
+            } catch (WebDriverException e) {
+                // fall back to the class name rather than lose the results of the other browsers
+            }
+        }
+        return driver.getClass().getSimpleName();
+    }
+
+    /**
+     * Start a test step with a deadline, see {@link #runStep(String, long, TimeUnit, Runnable)}.
+     *
+     * @param name Name of the test step
+     * @param timeout Maximum time the step may take
+     * @param unit Unit of the timeout
+     * @return The step, close it when done
+     */
+    public TestableStep step(String name, long timeout, TimeUnit unit) {
+        TestableStep started = step(name);
+        started.deadline(timeout, unit, null);
+        return started;
+    }
+
+    /**
+     * Start a test step and return a handle to finish it with, ideally via try-with-resources. Steps can be nested:
+     * a step started while another step of this test is open on the same thread is reported as its child. See
+     * {@link TestableStep} for details.
+     *
+     * @param name Name of the test step
+     * @return The step, close it when done
+     */
+    public TestableStep step(String name) {
+        TestableStep current = TestableStep.current();
+        return step(name, current != null && current.getTest() == this ? current : null);
+    }
+
+    TestableStep step(String name, TestableStep parent) {
+        TestableStartSuiteTest started = start(name, 0, parent != null ? parent.getUuid() : null);
+        return new TestableStep(this, parent, started);
+    }
+
     /**
      * Indicate to Testable that you are starting a test step. It is expected that you will call one of the
      * finishXXXStep() methods with the results.
@@ -40,15 +222,24 @@ public class TestableTest {
      * @param name Name of the test step
      */
     public void startStep(String name) {
-        currentTest = new TestableStartSuiteTest(startSuite, name, System.currentTimeMillis());
-        write("StartSuiteTest", currentTest);
+        LEGACY_STEP.set(start(name, 0));
+    }
+
+    /**
+     * @return Name of the step started with {@link #startStep(String)} on the calling thread and not yet finished, or
+     *         null if there is none
+     */
+    static String currentLegacyStepName() {
+        TestableStartSuiteTest step = LEGACY_STEP.get();
+        return step != null ? step.getName() : null;
     }
 
     /**
      * Indicates that the test step previously started with startStep(name) finished successfully.
      */
-    public void finishSuccessfulStep() {
-        finishStep(TestableFinishSuiteTest.passed(currentTest));
+    public synchronized void finishSuccessfulStep() {
+        if (currentTest != null)
+            finish(currentTest, TestableFinishSuiteTest.passed(currentTest));
     }
 
     /**
@@ -56,13 +247,13 @@ public class TestableTest {
      *
      * @param name Name of the test step
      */
-    public void finishSkippedStep(String name) {
+    public synchronized void finishSkippedStep(String name) {
         boolean hasNotStarted = currentTest == null || !currentTest.getName().equals(name);
         if (hasNotStarted && IGNORE_SKIPS)
             return;
         if (hasNotStarted)
             startStep(name);
-        finishStep(TestableFinishSuiteTest.skipped(currentTest));
+        finish(currentTest, TestableFinishSuiteTest.skipped(currentTest));
     }
 
     /**
@@ -70,8 +261,9 @@ public class TestableTest {
      *
      * @param t The error that occurred while running the test step.
      */
-    public void finishFailedStep(Throwable t) {
-        finishStep(TestableFinishSuiteTest.failed(currentTest, t));
+    public synchronized void finishFailedStep(Throwable t) {
+        if (currentTest != null)
+            finish(currentTest, TestableFinishSuiteTest.failed(currentTest, t));
     }
 
     /**
@@ -79,17 +271,35 @@ public class TestableTest {
      *
      * @param errorMsg The error message
      */
-    public void finishFailedStep(String errorMsg) {
-        finishStep(TestableFinishSuiteTest.failed(currentTest, errorMsg));
+    public synchronized void finishFailedStep(String errorMsg) {
+        if (currentTest != null)
+            finish(currentTest, TestableFinishSuiteTest.failed(currentTest, errorMsg));
     }
 
-    private void finishStep(TestableFinishSuiteTest finishMsg) {
-        if (currentTest != null) {
-            write("FinishSuiteTest", finishMsg);
-            if (finishMsg.getError() != null)
-                hasError = true;
+    /**
+     * @param elapsed How many milliseconds ago the step started, 0 if it starts now
+     */
+    private TestableStartSuiteTest start(String name, long elapsed) {
+        TestableStep current = TestableStep.current();
+        return start(name, elapsed, current != null && current.getTest() == this ? current.getUuid() : null);
+    }
+
+    private synchronized TestableStartSuiteTest start(String name, long elapsed, String parentUuid) {
+        // the wall clock is only used for the reported start time, durations are measured from startedNanos
+        currentTest = new TestableStartSuiteTest(startSuite, name, System.currentTimeMillis() - elapsed, parentUuid,
+                System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(elapsed));
+        write("StartSuiteTest", currentTest);
+        return currentTest;
+    }
+
+    synchronized void finish(TestableStartSuiteTest started, TestableFinishSuiteTest finishMsg) {
+        write("FinishSuiteTest", finishMsg);
+        if (finishMsg.getError() != null)
+            hasError = true;
+        if (currentTest == started)
             currentTest = null;
-        }
+        if (LEGACY_STEP.get() == started)
+            LEGACY_STEP.remove();
     }
 
     /**
@@ -99,9 +309,8 @@ public class TestableTest {
      * @param duration The duration it took to run assertion related code, can be 0.
      */
     public void assertionPassed(String assertion, long duration) {
-        currentTest = new TestableStartSuiteTest(startSuite, assertion, System.currentTimeMillis() - duration);
-        write("StartSuiteTest", currentTest);
-        finishStep(TestableFinishSuiteTest.passed(currentTest));
+        TestableStartSuiteTest started = start(assertion, duration);
+        finish(started, TestableFinishSuiteTest.passed(started));
     }
 
     /**
@@ -112,9 +321,8 @@ public class TestableTest {
      * @param t The error that occurred
      */
     public void assertionFailed(String assertion, long duration, Throwable t) {
-        currentTest = new TestableStartSuiteTest(startSuite, assertion, System.currentTimeMillis() - duration);
-        write("StartSuiteTest", currentTest);
-        finishStep(TestableFinishSuiteTest.failed(currentTest, t));
+        TestableStartSuiteTest started = start(assertion, duration);
+        finish(started, TestableFinishSuiteTest.failed(started, t));
     }
 
     /**
@@ -125,19 +333,21 @@ public class TestableTest {
      * @param errorMessage The error that occurred
      */
     public void assertionFailed(String assertion, long duration, String errorMessage) {
-        currentTest = new TestableStartSuiteTest(startSuite, assertion, System.currentTimeMillis() - duration);
-        write("StartSuiteTest", currentTest);
-        finishStep(TestableFinishSuiteTest.failed(currentTest, errorMessage));
+        TestableStartSuiteTest started = start(assertion, duration);
+        finish(started, TestableFinishSuiteTest.failed(started, errorMessage));
     }
 
     /**
      * Indicates that this test is done running. This will be reported back to the Testable results.
      */
-    public void finish() {
+    public synchronized void finish() {
         if (currentTest != null) {
             write("FinishSuiteTest", TestableFinishSuiteTest.passed(currentTest));
         }
         write("FinishSuite", new TestableFinishSuite(this.startSuite, hasError));
+        TestableStartSuiteTest legacyStep = LEGACY_STEP.get();
+        if (legacyStep != null && legacyStep.getSuiteUuid().equals(startSuite.getUuid()))
+            LEGACY_STEP.remove();
     }
 
     private static void write(String type, Object event) {
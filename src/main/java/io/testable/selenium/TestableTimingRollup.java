@@ -0,0 +1,70 @@
+package io.testable.selenium;
+
+/**
+ * Summary of all timing values reported for one metric during an aggregation window. Produced for timing metrics
+ * reported through {@link TestableSelenium#reportMetric(TestableMetric)} when metric aggregation is enabled via the
+ * testable_aggregate_metrics system property, and always for {@link TestableMetrics.Timer} handles.
+ */
+public class TestableTimingRollup {
+
+    private final String resource;
+    private final String url;
+    private final String namespace;
+    private final String name;
+    private final String units;
+    private final long windowStart;
+    private final long windowEnd;
+    private final long count;
+    private final long min;
+    private final long max;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+
+    TestableTimingRollup(TestableMetric metric, long windowStart, long windowEnd, TestableHistogram histogram) {
+        this.resource = metric.getResource();
+        this.url = metric.getUrl();
+        this.namespace = metric.getNamespace();
+        this.name = metric.getName();
+        this.units = metric.getUnits();
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+        this.count = histogram.getCount();
+        this.min = histogram.getMin();
+        this.max = histogram.getMax();
+        this.mean = histogram.getMean();
+        this.p50 = histogram.getValueAtPercentile(50);
+        this.p90 = histogram.getValueAtPercentile(90);
+        this.p99 = histogram.getValueAtPercentile(99);
+    }
+
+    public String getResource() { return resource; }
+
+    public String getUrl() { return url; }
+
+    public String getNamespace() { return namespace; }
+
+    public String getName() { return name; }
+
+    public String getUnits() { return units; }
+
+    public long getWindowStart() { return windowStart; }
+
+    public long getWindowEnd() { return windowEnd; }
+
+    public long getCount() { return count; }
+
+    public long getMin() { return min; }
+
+    public long getMax() { return max; }
+
+    public double getMean() { return mean; }
+
+    public long getP50() { return p50; }
+
+    public long getP90() { return p90; }
+
+    public long getP99() { return p99; }
+
+}
@@ -0,0 +1,39 @@
+package io.testable.selenium;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single daemon timer thread shared by all step deadlines in the JVM. Scheduling and cancelling a deadline is a
+ * cheap heap operation, cancelled deadlines are removed right away so finished steps do not pile up in the queue.
+ * Timeout actions must be quick since they all run on this one thread.
+ */
+class TestableWatchdog {
+
+    private static volatile ScheduledThreadPoolExecutor timer;
+
+    static ScheduledFuture<?> schedule(Runnable onTimeout, long timeout, TimeUnit unit) {
+        return timer().schedule(onTimeout, timeout, unit);
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor current = timer;
+        if (current == null) {
+            synchronized (TestableWatchdog.class) {
+                current = timer;
+                if (current == null) {
+                    current = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread thread = new Thread(r, "testable-watchdog");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    current.setRemoveOnCancelPolicy(true);
+                    timer = current;
+                }
+            }
+        }
+        return current;
+    }
+
+}
@@ -0,0 +1,258 @@
+package io.testable.selenium;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of browser sessions that all share the same {@link Capabilities}. Sessions are created in the background
+ * as soon as the pool is created so that they are ready when a test needs one. When a session is released it is
+ * reset (cookies and web storage cleared, navigated to about:blank) in the background and handed out again. Sessions
+ * that fail to reset or have been used the maximum number of times are quit and replaced. Sessions that sat idle
+ * for longer than testable_pool_validate_idle_ms (default 10000) are health checked again before being handed out,
+ * in case the browser died while idle.
+ *
+ * If a session can not be created it is retried with exponential backoff. After testable_pool_max_create_attempts
+ * failed attempts in a row (default 10) the pool is marked as failed and the session keeps being retried at the
+ * maximum backoff. While the pool is failed and has no live sessions left, {@link #acquire()} throws instead of
+ * waiting forever. The pool recovers as soon as a session is created successfully. Sessions are created and reset on
+ * separate threads, so released sessions keep being reset and handed out while creation is backing off.
+ *
+ * Obtain a pool via {@link TestableSelenium#getWebDriverPool(Capabilities, int, int)}.
+ */
+public class TestableWebDriverPool implements AutoCloseable {
+
+    public static final long VALIDATE_IDLE_MS = Long.getLong("testable_pool_validate_idle_ms", 10000);
+    public static final int MAX_CREATE_ATTEMPTS = Integer.getInteger("testable_pool_max_create_attempts", 10);
+
+    private static final long MAX_BACKOFF_MS = 30000;
+    private static final String CLEAR_STORAGE =
+            "try { window.localStorage && window.localStorage.clear(); } catch (e) {}" +
+            "try { window.sessionStorage && window.sessionStorage.clear(); } catch (e) {}";
+
+    private final Capabilities capabilities;
+    private final int size;
+    private final int maxReuse;
+    private final BlockingQueue<Session> idle = new LinkedBlockingQueue<>();
+    private final Map<WebDriver, Session> inUse = new ConcurrentHashMap<>();
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final ScheduledExecutorService creator;
+    private final ExecutorService resetter;
+    private volatile boolean closed = false;
+    private volatile WebDriverException failure;
+
+    TestableWebDriverPool(Capabilities capabilities, int size, int maxReuse) {
+        this.capabilities = capabilities;
+        this.size = Math.max(1, size);
+        this.maxReuse = maxReuse;
+        ThreadFactory threads = r -> {
+            Thread thread = new Thread(r, "testable-webdriver-pool");
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.creator = Executors.newScheduledThreadPool(this.size, threads);
+        this.resetter = Executors.newFixedThreadPool(this.size, threads);
+        for (int i = 0; i < this.size; i++)
+            create();
+    }
+
+    /**
+     * Take a session from the pool, waiting for one to become available.
+     *
+     * @return A browser session that must be given back with {@link #release(WebDriver)}
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public WebDriver acquire() throws InterruptedException {
+        return acquire(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Take a session from the pool, waiting up to the specified time for one to become available.
+     *
+     * @param timeout How long to wait
+     * @param unit Unit of the timeout
+     * @return A browser session that must be given back with {@link #release(WebDriver)}
+     * @throws InterruptedException If interrupted while waiting
+     * @throws WebDriverException If no session became available in time
+     */
+    public WebDriver acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (remaining > 0) {
+            WebDriverException failed = failure;
+            // sessions in use will come back, only give up when there are none left at all
+            if (failed != null && sessions.get() == 0)
+                throw new WebDriverException("Unable to create browser sessions", failed);
+            // wake up periodically to notice if the pool fails while we wait
+            Session session = idle.poll(Math.min(remaining, TimeUnit.SECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+            if (session != null) {
+                if (isHealthy(session))
+                    return checkout(session);
+                replace(session);
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        throw new WebDriverException("No browser session available after " + timeout + " " + unit);
+    }
+
+    /**
+     * Give a session back to the pool. It is reset in the background before it is handed out again. Does nothing once
+     * the pool is closed, since closing already quit every session.
+     *
+     * @param driver A session previously obtained from {@link #acquire()}
+     */
+    public void release(WebDriver driver) {
+        Session session = inUse.remove(driver);
+        if (session == null) {
+            if (closed)
+                return;
+            throw new IllegalArgumentException("WebDriver was not acquired from this pool");
+        }
+        session.uses++;
+        if (closed) {
+            quit(session);
+            return;
+        }
+        resetter.execute(() -> {
+            if (session.uses >= maxReuse && maxReuse > 0) {
+                replace(session);
+            } else if (reset(session.driver)) {
+                session.idleSince = System.nanoTime();
+                idle.add(session);
+            } else {
+                replace(session);
+            }
+        });
+    }
+
+    /**
+     * @return Number of live sessions, both idle and in use
+     */
+    public int getSessionCount() {
+        return sessions.get();
+    }
+
+    /**
+     * Quit all sessions. Sessions in use are quit immediately.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        creator.shutdownNow();
+        resetter.shutdownNow();
+        Session session;
+        while ((session = idle.poll()) != null)
+            quit(session);
+        // remove before quitting so a concurrent release() does not quit the same session again
+        for (WebDriver driver : inUse.keySet()) {
+            Session inUseSession = inUse.remove(driver);
+            if (inUseSession != null)
+                quit(inUseSession);
+        }
+    }
+
+    private WebDriver checkout(Session session) {
+        inUse.put(session.driver, session);
+        return session.driver;
+    }
+
+    private boolean isHealthy(Session session) {
+        if (System.nanoTime() - session.idleSince < TimeUnit.MILLISECONDS.toNanos(VALIDATE_IDLE_MS))
+            return true;
+        try {
+            session.driver.getWindowHandle();
+            return true;
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    private void create() {
+        if (!closed)
+            creator.execute(() -> create(1, 1000));
+    }
+
+    /**
+     * Try to create a session. On failure the next attempt is scheduled rather than slept for, so a grid that is
+     * down does not tie up the creation threads.
+     */
+    private void create(int attempt, long backoffMs) {
+        if (closed)
+            return;
+        try {
+            WebDriver driver = TestableSelenium.newWebDriver(capabilities);
+            sessions.incrementAndGet();
+            failure = null;
+            if (closed)
+                quit(new Session(driver));
+            else
+                idle.add(new Session(driver));
+        } catch (WebDriverException e) {
+            long delayMs = backoffMs;
+            if (attempt >= MAX_CREATE_ATTEMPTS) {
+                // keep retrying so the slot is not lost for good, but let acquire() fail meanwhile
+                if (failure == null)
+                    TestableSelenium.log(TestableLog.Level.Error, "Unable to create a browser session after " +
+                            attempt + " attempts, retrying every " + MAX_BACKOFF_MS + "ms");
+                failure = e;
+                delayMs = MAX_BACKOFF_MS;
+            }
+            // only the first failure is logged at Error so an unreachable grid does not flood the log
+            TestableSelenium.log(attempt == 1 ? TestableLog.Level.Error : TestableLog.Level.Debug, e);
+            long nextBackoffMs = Math.min(delayMs * 2, MAX_BACKOFF_MS);
+            if (!closed)
+                creator.schedule(() -> create(attempt + 1, nextBackoffMs), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void replace(Session session) {
+        quit(session);
+        create();
+    }
+
+    private boolean reset(WebDriver driver) {
+        try {
+            driver.manage().deleteAllCookies();
+            if (driver instanceof JavascriptExecutor)
+                ((JavascriptExecutor) driver).executeScript(CLEAR_STORAGE);
+            driver.get("about:blank");
+            // health check, fails if the browser or session has gone away
+            driver.getWindowHandle();
+            return true;
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    private void quit(Session session) {
+        sessions.decrementAndGet();
+        try {
+            session.driver.quit();
+        } catch (WebDriverException e) {
+            // already gone
+        }
+    }
+
+    private static class Session {
+        private final WebDriver driver;
+        private int uses;
+        private long idleSince = System.nanoTime();
+
+        private Session(WebDriver driver) {
+            this.driver = driver;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+// Testable: returns the PerformanceResourceTiming entries recorded since the previous call on this page.
+//
+// The first call reads the resource timing buffer and registers a PerformanceObserver, later calls only take the
+// entries the observer has seen since, so the buffer is never re-scanned and entries are not lost once it fills up.
+// Browsers without PerformanceObserver fall back to a bookmark into the buffer, which is grown whenever it fills.
+//
+// Each entry is returned as an array to keep the response small:
+// [name, initiatorType, dns, connect, ttfb, download, duration, transferSize, encodedBodySize]
+// Timings are in ms, -1 where the browser does not expose them (e.g. cross-origin without Timing-Allow-Origin).
+
+var TestableResourceTiming = function() {
+  var perf = window.performance;
+  if (!perf || !perf.getEntriesByType)
+    return null;
+  var state = window.__testableResourceTiming;
+  var entries;
+  if (!state) {
+    state = window.__testableResourceTiming = { pending: [], offset: 0, observer: null };
+    entries = perf.getEntriesByType('resource');
+    state.offset = entries.length;
+    if (typeof PerformanceObserver !== 'undefined') {
+      try {
+        var observer = new PerformanceObserver(function(list) {
+          Array.prototype.push.apply(state.pending, list.getEntries());
+        });
+        observer.observe({ entryTypes: ['resource'] });
+        state.observer = observer;
+      } catch (e) {
+        state.observer = null;
+      }
+    }
+    if (!state.observer && perf.addEventListener && perf.setResourceTimingBufferSize) {
+      var size = 250;
+      perf.addEventListener('resourcetimingbufferfull', function() {
+        size = Math.max(size, perf.getEntriesByType('resource').length) * 2;
+        perf.setResourceTimingBufferSize(size);
+      });
+    }
+  } else if (state.observer) {
+    // entries that were recorded but not yet delivered to the observer callback
+    var records = state.observer.takeRecords ? state.observer.takeRecords() : [];
+    entries = state.pending.concat(records);
+    state.pending = [];
+  } else {
+    var all = perf.getEntriesByType('resource');
+    // the buffer was cleared by someone else
+    if (all.length < state.offset)
+      state.offset = 0;
+    entries = all.slice(state.offset);
+    state.offset = all.length;
+  }
+
+  var answer = [];
+  for (var i = 0; i < entries.length; i++) {
+    var e = entries[i];
+    var detailed = e.requestStart > 0;
+    answer.push([
+      e.name,
+      e.initiatorType,
+      detailed ? e.domainLookupEnd - e.domainLookupStart : -1,
+      detailed ? e.connectEnd - e.connectStart : -1,
+      detailed && e.responseStart > 0 ? e.responseStart - e.requestStart : -1,
+      e.responseStart > 0 ? e.responseEnd - e.responseStart : -1,
+      e.duration,
+      typeof e.transferSize === 'number' ? e.transferSize : -1,
+      typeof e.encodedBodySize === 'number' ? e.encodedBodySize : -1
+    ]);
+  }
+  return { url: window.location.href, entries: answer };
+};
+
+return TestableResourceTiming();